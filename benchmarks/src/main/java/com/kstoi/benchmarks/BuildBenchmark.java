@@ -0,0 +1,48 @@
+package com.kstoi.benchmarks;
+
+import com.kstoi.trees.AbstractDecisionTree;
+import com.kstoi.trees.DecisionTree;
+import com.kstoi.trees.PrunedDecisionTree;
+import com.kstoi.utils.Dataset;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full {@code build()} of both tree types, on exact splits and on histograms.
+ * The dataset is generated once per trial; its sorted orders and bins are
+ * cached on the columns after the first build, as they are between trees
+ * trained on the same data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class BuildBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"DecisionTree", "PrunedDecisionTree"})
+    public String tree;
+
+    @Param({"0", "255"})
+    public int bins;
+
+    private Dataset dataset;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataset = SyntheticData.dataset(rows, 42);
+    }
+
+    @Benchmark
+    public Object build() {
+        AbstractDecisionTree<?> builder = tree.equals("DecisionTree")
+                ? new DecisionTree(dataset)
+                : new PrunedDecisionTree(dataset, 4, 5, 0.01);
+        builder.setBins(bins);
+        return builder.build();
+    }
+}
@@ -0,0 +1,59 @@
+package com.kstoi.benchmarks;
+
+import com.kstoi.utils.ArffReader;
+import com.kstoi.utils.Dataset;
+import com.kstoi.utils.DatasetCache;
+import com.kstoi.utils.MappedReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a generated ARFF file: parsed line by line, memory mapped and parsed
+ * in chunks, and read back from its binary cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private File arff;
+    private DatasetCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        arff = SyntheticData.arff(rows, 42);
+        var bin = new File(arff.getPath() + ".bin");
+        bin.deleteOnExit();
+        cache = new DatasetCache(bin);
+        cache.write(new ArffReader(arff).loadData(), arff);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(arff.getPath() + ".bin").delete();
+        arff.delete();
+    }
+
+    @Benchmark
+    public Dataset arffReader() throws IOException {
+        return new ArffReader(arff).loadData();
+    }
+
+    @Benchmark
+    public Dataset mappedReader() throws IOException {
+        return new MappedReader(arff).loadData();
+    }
+
+    @Benchmark
+    public Dataset binaryCache() throws IOException {
+        return cache.load(arff);
+    }
+}
@@ -0,0 +1,137 @@
+package com.kstoi.benchmarks;
+
+import com.kstoi.trees.CompiledModel;
+import com.kstoi.trees.CompiledTree;
+import com.kstoi.trees.DecisionTree;
+import com.kstoi.trees.PrunedDecisionTree;
+import com.kstoi.utils.Dataset;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Scoring with a tree trained on generated rows, unpruned or shallow: one
+ * row at a time by walking the nodes, through the compiled tree and through
+ * the code generated for it, and a whole held out dataset in one batch, from
+ * its columns or as packed feature vectors.
+ *
+ * <p>Rows in turn take data dependent paths whose branch mispredictions
+ * cost the evaluators alike; the {@code repeated} variants score one row
+ * over and over, leaving the cost of the evaluator itself.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictBenchmark {
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"DecisionTree", "PrunedDecisionTree"})
+    public String model;
+
+    /** prediction by walking the nodes */
+    private Function<Dataset.Line, String> nodes;
+    private CompiledTree compiled;
+    private CompiledModel generated;
+    private Dataset test;
+    private double[][] vectors;
+    private double[] packed;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var train = SyntheticData.dataset(rows, 42);
+        if (model.equals("DecisionTree")) {
+            var decisionTree = new DecisionTree(train);
+            var node = decisionTree.build();
+            nodes = line -> decisionTree.predict(node, line);
+            compiled = decisionTree.compile(node);
+        } else {
+            var prunedTree = new PrunedDecisionTree(train, 4, 5, 0.01);
+            var node = prunedTree.build();
+            nodes = line -> prunedTree.predict(node, line);
+            compiled = prunedTree.compile(node);
+        }
+        generated = compiled.generate();
+        test = SyntheticData.dataset(rows, 43);
+        int width = compiled.getFeatures().size();
+        vectors = new double[test.getData().size()][];
+        packed = new double[vectors.length * width];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = compiled.encode(test.getData().get(i), new double[width]);
+            System.arraycopy(vectors[i], 0, packed, i * width, width);
+        }
+    }
+
+    private int nextRow() {
+        int row = next;
+        next = row + 1 == vectors.length ? 0 : row + 1;
+        return row;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String singleNodes() {
+        return nodes.apply(test.getData().get(nextRow()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int singleCompiled() {
+        return compiled.predict(vectors[nextRow()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int singleGenerated() {
+        return generated.predict(vectors[nextRow()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int repeatedCompiled() {
+        return compiled.predict(vectors[0]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int repeatedGenerated() {
+        return generated.predict(vectors[0]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] batchCompiled() {
+        return compiled.predictBatch(test, null);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] batchCompiledPool() {
+        return compiled.predictBatch(test, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] batchPacked() {
+        return compiled.predictBatch(packed, vectors.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] batchPackedGenerated() {
+        return generated.predictBatch(packed, vectors.length);
+    }
+}
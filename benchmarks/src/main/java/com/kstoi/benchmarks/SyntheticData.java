@@ -0,0 +1,43 @@
+package com.kstoi.benchmarks;
+
+import com.kstoi.utils.Dataset;
+import com.kstoi.utils.DatasetGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The benchmarks' data: a {@link DatasetGenerator} with roughly the mix of the
+ * speeddating data, mostly numeric ratings, a few nominal attributes, a
+ * couple of percent missing values and a two class target.
+ */
+public final class SyntheticData {
+    private SyntheticData() {}
+
+    public static DatasetGenerator generator(int rows, long seed) {
+        var generator = new DatasetGenerator(rows);
+        generator.setRelation("speeddating-synthetic");
+        generator.setNumericAttributes(16);
+        generator.setNominalAttributes(6);
+        generator.setCardinality(10);
+        generator.setMissingRate(0.02);
+        generator.setConceptDepth(6);
+        generator.setNoise(0.1);
+        generator.setSeed(seed);
+        return generator;
+    }
+
+    public static Dataset dataset(int rows, long seed) {
+        return generator(rows, seed).dataset();
+    }
+
+    /**
+     * Writes the rows of {@link #dataset(int, long)} to a temporary ARFF file.
+     */
+    public static File arff(int rows, long seed) throws IOException {
+        var file = File.createTempFile("speeddating-synthetic", ".arff");
+        file.deleteOnExit();
+        generator(rows, seed).writeArff(file);
+        return file;
+    }
+}
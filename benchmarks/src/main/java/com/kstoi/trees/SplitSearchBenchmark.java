@@ -0,0 +1,72 @@
+package com.kstoi.trees;
+
+import com.kstoi.benchmarks.SyntheticData;
+import com.kstoi.utils.Column;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The split search of a single node holding every row: the exact sweep over a
+ * numeric attribute's sorted rows, the histogram build and sweep, and the
+ * count matrix of a nominal attribute. Lives in the library's package to reach
+ * the package-private kernels of {@link SplitSearch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitSearchBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"ENTROPY", "GINI"})
+    public SplitCriterion criterion;
+
+    private int[] order;
+    private double[] values;
+    private Column.Bins bins;
+    private Column nominal;
+    private int[] rowIndex;
+    private int[] labels;
+    private int[] counts;
+    private int classes;
+    private int[] histogram;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var dataset = SyntheticData.dataset(rows, 42);
+        var numeric = dataset.getColumn("n0");
+        order = numeric.sortedRows();
+        values = numeric.getValues();
+        bins = numeric.quantize(255);
+        nominal = dataset.getColumn("c0");
+        rowIndex = dataset.getRows();
+        labels = dataset.getLabels();
+        classes = dataset.getClasses().size();
+        counts = SplitSearch.classCounts(rowIndex, 0, rowIndex.length, labels, classes);
+        histogram = SplitSearch.histogram(rowIndex, 0, rowIndex.length, bins, labels, classes);
+    }
+
+    @Benchmark
+    public double[] numericExact() {
+        return SplitSearch.bestThresholdNumeric(order, 0, order.length, values, labels, counts, criterion);
+    }
+
+    @Benchmark
+    public int[] numericHistogram() {
+        return SplitSearch.histogram(rowIndex, 0, rowIndex.length, bins, labels, classes);
+    }
+
+    @Benchmark
+    public double[] numericHistogramSweep() {
+        return SplitSearch.bestThresholdHistogram(histogram, bins, classes, rowIndex.length, criterion);
+    }
+
+    @Benchmark
+    public double nominal() {
+        return SplitSearch.nominalGain(rowIndex, 0, rowIndex.length, nominal, labels, counts, criterion);
+    }
+}
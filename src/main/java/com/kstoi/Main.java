@@ -2,7 +2,10 @@ package com.kstoi;
 
 import com.kstoi.trees.DecTree;
 import com.kstoi.trees.DecisionTree;
+import com.kstoi.trees.GradientBoostedTrees;
+import com.kstoi.trees.HyperparameterSearch;
 import com.kstoi.trees.PrunedDecisionTree;
+import com.kstoi.trees.RandomForest;
 import com.kstoi.trees.TreeNode;
 import com.kstoi.utils.ArffReader;
 import com.kstoi.utils.Dataset;
@@ -19,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 @Slf4j
 public class Main {
@@ -26,7 +30,7 @@ public class Main {
         ArffReader reader = null;
         try {
             reader = new ArffReader(new File("src/main/resources/speeddating.arff"));
-            var dataset = reader.loadData();
+            var dataset = reader.loadCached();
             var datasets = dataset.split(2);
 
 
@@ -34,6 +38,16 @@ public class Main {
             var resultNotPruned = testTree(new DecisionTree(dataset),dataset);
             var resultNotPrunedHalfDataset = testTree(new DecisionTree(datasets[0]),datasets[1]);
             var resultPrunedHalfDataset = testTree(new PrunedDecisionTree(datasets[0],4,5,0.01),datasets[1]);
+            var forest = new RandomForest(datasets[0],50);
+            forest.setPool(ForkJoinPool.commonPool());
+            var resultForestHalfDataset = testTree(forest,datasets[1]);
+            var boosted = new GradientBoostedTrees(datasets[0],300);
+            boosted.setValidationFraction(0.1);
+            var resultBoostedHalfDataset = testTree(boosted,datasets[1]);
+            var search = new HyperparameterSearch(dataset,5);
+            search.setPool(ForkJoinPool.commonPool());
+            var searchResults = search.search(HyperparameterSearch.grid(
+                    new int[]{2,4,6,8}, new int[]{2,5,20}, new double[]{0,0.01}));
 
 
             log.info("2. Pruned Decision Tree results");
@@ -54,6 +68,19 @@ public class Main {
             resultNotPrunedHalfDataset.forEach((string,object)->{
                 log.info("{} -> {}",string,object.toString());
             });
+            log.info("6. Random forest split 1/2 dataset");
+            resultForestHalfDataset.forEach((string,object)->{
+                log.info("{} -> {}",string,object.toString());
+            });
+            log.info("7. Gradient boosted trees split 1/2 dataset");
+            resultBoostedHalfDataset.forEach((string,object)->{
+                log.info("{} -> {}",string,object.toString());
+            });
+            log.info("8. Pruned tree settings by 5-fold cross-validation");
+            searchResults.stream().limit(5).forEach(result->{
+                log.info("{} -> mean accuracy {} +- {}",result.getSettings(),
+                        result.getScores().getMean(),result.getScores().getStandardDeviation());
+            });
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -69,8 +96,10 @@ public class Main {
         }
 
         double truePositives=0,trueNegatives=0,falsePositives=0,falseNegatives=0;
-            for (Dataset.Line line : testDataset.getData()){
-                String prediction = tree.predict(node,line);
+            var predictions = tree.predictBatch(node,testDataset);
+            for (int i = 0; i < predictions.length; i++){
+                Dataset.Line line = testDataset.getData().get(i);
+                String prediction = predictions[i];
                 System.out.println(line);
                 log.info("line is labeled as {} -> predicted {}",line.get("match"),prediction);
                 if(prediction!=null)
@@ -0,0 +1,84 @@
+package com.kstoi.serving;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in log-linear buckets: every power of two is cut into
+ * {@value #SUB_BUCKETS} buckets, so a percentile is off by a little over
+ * 3% at most, whatever the range, in a fixed table of counters. Recording
+ * takes no lock and may run on any number of threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0d : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return the highest value of the bucket holding the {@code quantile}
+     *         of the recorded values, e.g. 0.99 for the 99th percentile, 0 when none were recorded
+     */
+    public long percentile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) total += snapshot[i] = counts.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highest(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Values below {@value #SUB_BUCKETS} get a bucket each, above that the
+     * top {@value #SUB_BITS} bits past the leading one pick the bucket.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long highest(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
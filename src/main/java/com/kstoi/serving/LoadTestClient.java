@@ -0,0 +1,143 @@
+package com.kstoi.serving;
+
+import com.kstoi.utils.Dataset;
+import com.kstoi.utils.MappedReader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a {@link ScoringServer} with the lines of a dataset: {@code threads}
+ * clients each send requests of {@code rowsPerRequest} lines back to back, for a
+ * warm-up that is not counted and then for {@code seconds}. Reports the
+ * latency seen by the clients, the throughput, and the server's metrics.
+ *
+ * <p>{@code LoadTestClient <server url> <arff file> [threads] [seconds] [rows per request] [warm-up seconds]}
+ */
+@Slf4j
+public class LoadTestClient {
+    private final URI server;
+    private final int threads;
+    private final int rowsPerRequest;
+    private final HttpClient client;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public LoadTestClient(URI server, int threads, int rowsPerRequest) {
+        this.server = server;
+        this.threads = threads;
+        this.rowsPerRequest = rowsPerRequest;
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    /**
+     * @return request bodies of {@code rowsPerRequest} lines each, the values in the server's feature order
+     */
+    public List<String> bodies(Dataset dataset) throws IOException, InterruptedException {
+        var header = client.send(HttpRequest.newBuilder(server.resolve("/features")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        String[] features = header.body().trim().split(",");
+        List<String> bodies = new ArrayList<>();
+        var body = new StringBuilder();
+        int inBody = 0;
+        for (var line : dataset.getData()) {
+            for (int f = 0; f < features.length; f++) {
+                if (f > 0) body.append(',');
+                body.append(line.get(features[f]));
+            }
+            body.append('\n');
+            if (++inBody == rowsPerRequest) {
+                bodies.add(body.toString());
+                body.setLength(0);
+                inBody = 0;
+            }
+        }
+        if (bodies.isEmpty()) throw new IllegalArgumentException("fewer lines than rows per request");
+        return bodies;
+    }
+
+    /**
+     * Runs the clients for a warm-up and then for {@code seconds}, counting the latter only.
+     */
+    public void run(List<String> bodies, double warmUpSeconds, double seconds) throws InterruptedException {
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        try {
+            long warmUpEnd = System.nanoTime() + (long) (warmUpSeconds * 1e9);
+            long end = warmUpEnd + (long) (seconds * 1e9);
+            List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                running.add(clients.submit(() -> {
+                    var predict = server.resolve("/predict");
+                    for (int i = first; ; i += threads) {
+                        long start = System.nanoTime();
+                        if (start >= end) return null;
+                        var request = HttpRequest.newBuilder(predict)
+                                .POST(HttpRequest.BodyPublishers.ofString(bodies.get(i % bodies.size())))
+                                .build();
+                        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (start < warmUpEnd) continue;
+                        if (response.statusCode() != 200) {
+                            errors.increment();
+                            continue;
+                        }
+                        latency.record(System.nanoTime() - start);
+                        requests.increment();
+                        rows.add(rowsPerRequest);
+                    }
+                }));
+            }
+            for (var future : running) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.warn("client failed", e.getCause());
+                    errors.increment();
+                }
+            }
+            log.info("{} clients, {} rows per request: {} requests/s, {} rows/s, p50 {} us, p99 {} us, max {} us, {} errors",
+                    threads, rowsPerRequest,
+                    String.format("%.0f", requests.sum() / seconds), String.format("%.0f", rows.sum() / seconds),
+                    latency.percentile(0.5) / 1_000, latency.percentile(0.99) / 1_000, latency.getMax() / 1_000,
+                    errors.sum());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the server's {@code /metrics}
+     */
+    public String serverMetrics() throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(server.resolve("/metrics")).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: LoadTestClient <server url> <arff file> [threads] [seconds] [rows per request] [warm-up seconds]");
+            System.exit(2);
+        }
+        var dataset = new MappedReader(new File(args[1])).loadData();
+        var client = new LoadTestClient(URI.create(args[0]),
+                args.length > 2 ? Integer.parseInt(args[2]) : 8,
+                args.length > 4 ? Integer.parseInt(args[4]) : 1);
+        var bodies = client.bodies(dataset);
+        client.run(bodies, args.length > 5 ? Double.parseDouble(args[5]) : 2, args.length > 3 ? Double.parseDouble(args[3]) : 10);
+        System.out.print(client.serverMetrics());
+    }
+}
@@ -0,0 +1,175 @@
+package com.kstoi.serving;
+
+import com.kstoi.trees.CompiledModel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces feature rows submitted by concurrent callers into batches for
+ * {@link CompiledModel#predictBatch(double[], int)}, scored one after the
+ * other on a thread of its own. Every request names the model its rows were
+ * encoded for, and a batch only holds requests for one model, so rows keep
+ * their model across a swap in a {@link ModelRegistry}.
+ *
+ * <p>A batch takes whatever was queued while the previous one was scored,
+ * up to {@code maxBatchRows} rows, and waits at most {@code maxDelayNanos}
+ * past its first request for more to arrive. With no delay an idle batcher
+ * scores a request at once and batches only build up under load, so the
+ * batching costs nothing when there is nothing to batch.
+ */
+@Slf4j
+public class MicroBatcher implements AutoCloseable {
+    @Getter
+    private final int maxBatchRows;
+    @Getter
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread scorer;
+    private volatile boolean closed;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    public MicroBatcher(int maxBatchRows, long maxDelayNanos) {
+        if (maxBatchRows < 1) throw new IllegalArgumentException("maxBatchRows must be at least 1");
+        this.maxBatchRows = maxBatchRows;
+        this.maxDelayNanos = maxDelayNanos;
+        scorer = new Thread(this::run, "micro-batcher");
+        scorer.setDaemon(true);
+        scorer.start();
+    }
+
+    /**
+     * Queues {@code rows} feature vectors of {@code model} packed one after the other.
+     *
+     * @return the predicted class codes, once the batch holding them is scored
+     */
+    public CompletableFuture<int[]> submit(CompiledModel model, double[] features, int rows) {
+        if (features.length < rows * model.getFeatures().size()) {
+            throw new IllegalArgumentException("fewer than " + rows + " feature vectors");
+        }
+        var request = new Request(model, features, rows);
+        if (closed) {
+            request.result.completeExceptionally(new IllegalStateException("batcher is closed"));
+            return request.result;
+        }
+        queue.add(request);
+        // closed while queuing, the scorer may be gone
+        if (closed && queue.remove(request)) request.result.completeExceptionally(new IllegalStateException("batcher is closed"));
+        return request.result;
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the rows scored so far
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        // taken off the queue for a model other than the batch's, it starts the next batch
+        Request carried = null;
+        while (!closed) {
+            try {
+                var first = carried != null ? carried : queue.take();
+                carried = null;
+                batch.add(first);
+                int size = first.rows;
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (size < maxBatchRows) {
+                    var next = queue.poll();
+                    if (next == null) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0 || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null) break;
+                    }
+                    if (next.model != first.model) {
+                        carried = next;
+                        break;
+                    }
+                    batch.add(next);
+                    size += next.rows;
+                }
+                score(batch, size);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                for (var request : batch) {
+                    if (!request.result.isDone()) request.result.completeExceptionally(new IllegalStateException("batcher is closed"));
+                }
+                batch.clear();
+            }
+        }
+        if (carried != null) carried.result.completeExceptionally(new IllegalStateException("batcher is closed"));
+    }
+
+    private void score(List<Request> batch, int size) {
+        var model = batch.get(0).model;
+        int width = model.getFeatures().size();
+        try {
+            double[] features;
+            if (batch.size() == 1) {
+                features = batch.get(0).features;
+            } else {
+                features = new double[size * width];
+                int at = 0;
+                for (var request : batch) {
+                    System.arraycopy(request.features, 0, features, at, request.rows * width);
+                    at += request.rows * width;
+                }
+            }
+            int[] predictions = model.predictBatch(features, size);
+            batches.increment();
+            rows.add(size);
+            int at = 0;
+            for (var request : batch) {
+                request.result.complete(Arrays.copyOfRange(predictions, at, at + request.rows));
+                at += request.rows;
+            }
+        } catch (RuntimeException e) {
+            log.warn("scoring a batch of {} rows failed", size, e);
+            for (var request : batch) request.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stops the scoring thread; requests still queued fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scorer.interrupt();
+        try {
+            scorer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) request.result.completeExceptionally(new IllegalStateException("batcher is closed"));
+    }
+
+    private static class Request {
+        private final CompiledModel model;
+        private final double[] features;
+        private final int rows;
+        private final CompletableFuture<int[]> result = new CompletableFuture<>();
+
+        Request(CompiledModel model, double[] features, int rows) {
+            this.model = model;
+            this.features = features;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.kstoi.serving;
+
+import com.kstoi.trees.CompiledModel;
+import com.kstoi.trees.CompiledTree;
+import com.kstoi.trees.ModelIO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the model being scored and swaps in new ones while scoring goes on.
+ *
+ * <p>Models are loaded with {@link ModelIO} on a thread of the registry's
+ * and published with a single write of an {@link AtomicReference}: a
+ * scoring thread reads {@link #current()} once per request, without a lock,
+ * and keeps the version it read to the end of the request, so it never
+ * waits on a swap nor sees a model that is not fully loaded. Every model
+ * published gets the next version number; the last {@code keep} versions
+ * are retained to roll back to. Publishing and rolling back are serialized
+ * among themselves only.
+ */
+@Slf4j
+public class ModelRegistry implements AutoCloseable {
+    private final AtomicReference<Version> current = new AtomicReference<>();
+    /** versions published before the current one, the latest first */
+    private final Deque<Version> history = new ArrayDeque<>();
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(task -> {
+        var thread = new Thread(task, "model-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int versions;
+    /**
+     * Versions retained to roll back to.
+     */
+    @Getter
+    @Setter
+    private int keep = 5;
+    /**
+     * Whether trees are turned into generated code when loaded, see {@link CompiledTree#generate()}.
+     */
+    @Getter
+    @Setter
+    private boolean generate;
+
+    /**
+     * @return the version being scored, null before the first is published
+     */
+    public Version current() {
+        return current.get();
+    }
+
+    /**
+     * Loads a model on the registry's thread and publishes it.
+     *
+     * @return the version published, or the failure to load
+     */
+    public CompletableFuture<Version> load(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return publish(prepare(ModelIO.read(file)), file.getPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, loader);
+    }
+
+    private CompiledModel prepare(CompiledModel model) {
+        return generate && model instanceof CompiledTree tree ? tree.generate() : model;
+    }
+
+    /**
+     * Makes {@code model} the one scored.
+     */
+    public synchronized Version publish(CompiledModel model, String source) {
+        var previous = current.get();
+        if (previous != null && !previous.model.getFeatures().equals(model.getFeatures())) {
+            log.warn("version {} from {} has other features than version {}, clients sending rows must follow",
+                    versions + 1, source, previous.number);
+        }
+        var version = new Version(++versions, model, source, Instant.now());
+        current.set(version);
+        if (previous != null) {
+            history.addFirst(previous);
+            while (history.size() > keep) history.removeLast();
+        }
+        log.info("published version {} from {}", version.number, source);
+        return version;
+    }
+
+    /**
+     * Goes back to the version published before the current one; the
+     * current one is dropped.
+     *
+     * @throws IllegalStateException when there is none left
+     */
+    public synchronized Version rollback() {
+        var previous = history.pollFirst();
+        if (previous == null) throw new IllegalStateException("no version to roll back to");
+        log.info("rolled back from version {} to {}", current.get().number, previous.number);
+        current.set(previous);
+        return previous;
+    }
+
+    /**
+     * @return the retained versions, the current one first
+     */
+    public synchronized List<Version> versions() {
+        List<Version> all = new ArrayList<>();
+        if (current.get() != null) all.add(current.get());
+        all.addAll(history);
+        return all;
+    }
+
+    /**
+     * Loads {@code file} whenever it changes from now on, checking every {@code interval}.
+     * {@link ModelIO#write} moves a finished file in place, so a change is
+     * never seen half written. A file that fails to load is logged and the
+     * current version kept.
+     */
+    public void watch(File file, Duration interval) {
+        long[] seen = {file.lastModified(), file.length()};
+        loader.scheduleWithFixedDelay(() -> {
+            long modified = file.lastModified(), length = file.length();
+            if (modified == 0 || modified == seen[0] && length == seen[1]) return;
+            seen[0] = modified;
+            seen[1] = length;
+            try {
+                publish(prepare(ModelIO.read(file)), file.getPath());
+            } catch (IOException | RuntimeException e) {
+                log.warn("cannot load {}, keeping version {}", file, current.get() == null ? null : current.get().number, e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * A published model.
+     */
+    @Getter
+    @ToString(exclude = "model")
+    @AllArgsConstructor
+    public static class Version {
+        private final int number;
+        private final CompiledModel model;
+        /** where the model was loaded from */
+        private final String source;
+        private final Instant published;
+    }
+}
@@ -0,0 +1,286 @@
+package com.kstoi.serving;
+
+import com.kstoi.trees.CompiledModel;
+import com.kstoi.trees.ModelIO;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores the current model of a {@link ModelRegistry} over HTTP on the
+ * JDK's built-in server.
+ *
+ * <ul>
+ *   <li>{@code POST /predict}: one row per line, the raw values of the
+ *   features comma separated in the order of {@code GET /features},
+ *   {@value com.kstoi.utils.Dataset#MISSING} for a missing value. The
+ *   answer is the predicted class of every row, a line each, with the
+ *   version of the model in {@code X-Model-Version}.</li>
+ *   <li>{@code GET /features}: the feature names, comma separated.</li>
+ *   <li>{@code GET /metrics}: request, row and batch counters, throughput
+ *   since start and request latency percentiles, a {@code name value} pair
+ *   per line; {@code ?reset} starts the latencies over.</li>
+ *   <li>{@code GET /model}: the retained model versions, the current one
+ *   first; {@code POST /model/rollback} goes back to the previous one.</li>
+ * </ul>
+ *
+ * Handlers parse a request on the handler pool and hand its rows to a
+ * {@link MicroBatcher}, so rows of concurrent requests are scored together.
+ * A request is parsed and scored by the version current when it came in, so
+ * a model swapped in meanwhile takes the requests after it.
+ * The handlers block until their batch is scored, which is why the pool has
+ * more threads than there are cores; any other executor, such as one
+ * running a virtual thread per task, can be set before {@link #start()}.
+ *
+ * <p>The JDK's server writes the headers and the body of an answer apart;
+ * with Nagle's algorithm on, the body waits for the client's delayed ack.
+ * Run with {@code -Dsun.net.httpserver.nodelay=true}, which {@link #main}
+ * sets: the property is read once per JVM, when the first server is created.
+ */
+@Slf4j
+public class ScoringServer implements AutoCloseable {
+    @Getter
+    private final ModelRegistry registry;
+    private final int port;
+    @Getter
+    @Setter
+    private int threads = 64;
+    @Getter
+    @Setter
+    private int maxBatchRows = 256;
+    @Getter
+    @Setter
+    private long maxDelayNanos;
+    /**
+     * Executor the handlers run on, a pool of {@code threads} platform threads when not set.
+     */
+    @Getter
+    @Setter
+    private ExecutorService executor;
+
+    private HttpServer server;
+    private MicroBatcher batcher;
+    private long started;
+    @Getter
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public ScoringServer(ModelRegistry registry, int port) {
+        this.registry = registry;
+        this.port = port;
+    }
+
+    /**
+     * Scores a single model, published as the first version of a registry of its own.
+     */
+    public ScoringServer(CompiledModel model, int port) {
+        this(new ModelRegistry(), port);
+        registry.publish(model, "memory");
+    }
+
+    public void start() throws IOException {
+        if (registry.current() == null) throw new IllegalStateException("no model published");
+        if (executor == null) {
+            var count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, task -> {
+                var thread = new Thread(task, "scoring-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        batcher = new MicroBatcher(maxBatchRows, maxDelayNanos);
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/predict", this::predict);
+        server.createContext("/features", this::features);
+        server.createContext("/metrics", this::metrics);
+        server.createContext("/model", this::model);
+        started = System.nanoTime();
+        server.start();
+        log.info("scoring version {} on port {}", registry.current().getNumber(), getPort());
+    }
+
+    /**
+     * @return the port listened on, known once started
+     */
+    public int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        if (server == null) return;
+        server.stop(0);
+        batcher.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("scored {} rows in {} requests and {} batches", rows.sum(), requests.sum(), batcher.getBatches());
+        server = null;
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST rows of feature values\n");
+                return;
+            }
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String[] lines = body.split("\r?\n");
+            var version = registry.current();
+            var model = version.getModel();
+            exchange.getResponseHeaders().set("X-Model-Version", Integer.toString(version.getNumber()));
+            int width = model.getFeatures().size();
+            var features = new double[lines.length * width];
+            int count = 0;
+            try {
+                for (String line : lines) {
+                    if (line.isBlank()) continue;
+                    String[] values = line.split(",", -1);
+                    for (int v = 0; v < values.length; v++) values[v] = values[v].trim();
+                    model.encode(values, features, count * width);
+                    count++;
+                }
+            } catch (IllegalArgumentException e) {
+                errors.increment();
+                respond(exchange, 400, "row " + (count + 1) + ": " + e.getMessage() + "\n");
+                return;
+            }
+
+            int[] predictions;
+            try {
+                predictions = count == 0 ? new int[0] : batcher.submit(model, features, count).get();
+            } catch (ExecutionException e) {
+                errors.increment();
+                respond(exchange, 503, e.getCause().getMessage() + "\n");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.increment();
+                respond(exchange, 503, "interrupted\n");
+                return;
+            }
+            var classes = model.getClasses();
+            var answer = new StringBuilder(predictions.length * 8);
+            for (int prediction : predictions) answer.append(classes.get(prediction)).append('\n');
+            respond(exchange, 200, answer.toString());
+            requests.increment();
+            rows.add(count);
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private void features(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, 200, String.join(",", registry.current().getModel().getFeatures()) + "\n");
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long batches = batcher.getBatches();
+            var text = new StringBuilder()
+                    .append("model_version ").append(registry.current().getNumber()).append('\n')
+                    .append("requests ").append(requests.sum()).append('\n')
+                    .append("rows ").append(rows.sum()).append('\n')
+                    .append("errors ").append(errors.sum()).append('\n')
+                    .append("batches ").append(batches).append('\n')
+                    .append("rows_per_batch ").append(String.format("%.2f", batches == 0 ? 0d : (double) batcher.getRows() / batches)).append('\n')
+                    .append("requests_per_second ").append(String.format("%.1f", requests.sum() / seconds)).append('\n')
+                    .append("rows_per_second ").append(String.format("%.1f", rows.sum() / seconds)).append('\n')
+                    .append("latency_count ").append(latency.getCount()).append('\n')
+                    .append("latency_mean_us ").append(String.format("%.1f", latency.getMean() / 1e3)).append('\n')
+                    .append("latency_p50_us ").append(latency.percentile(0.5) / 1_000).append('\n')
+                    .append("latency_p99_us ").append(latency.percentile(0.99) / 1_000).append('\n')
+                    .append("latency_max_us ").append(latency.getMax() / 1_000).append('\n');
+            respond(exchange, 200, text.toString());
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.contains("reset")) latency.reset();
+        }
+    }
+
+    private void model(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/model/rollback")) {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, "POST to roll back\n");
+                    return;
+                }
+                try {
+                    registry.rollback();
+                } catch (IllegalStateException e) {
+                    respond(exchange, 409, e.getMessage() + "\n");
+                    return;
+                }
+            } else if (!path.equals("/model")) {
+                respond(exchange, 404, "no " + path + "\n");
+                return;
+            }
+            var text = new StringBuilder();
+            for (var version : registry.versions()) {
+                text.append(version.getNumber()).append(' ').append(version.getPublished())
+                        .append(' ').append(version.getSource()).append('\n');
+            }
+            respond(exchange, 200, text.toString());
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * {@code ScoringServer <model file> [port] [threads] [max batch rows] [max delay micros]}.
+     * The model file is reloaded whenever it is replaced, e.g. by {@link ModelIO#write};
+     * {@code -Dscoring.generate=true} scores trees with generated code.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ScoringServer <model file> [port] [threads] [max batch rows] [max delay micros]");
+            System.exit(2);
+        }
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        var file = new File(args[0]);
+        var registry = new ModelRegistry();
+        registry.setGenerate(Boolean.getBoolean("scoring.generate"));
+        registry.load(file).join();
+        registry.watch(file, Duration.ofSeconds(5));
+        var server = new ScoringServer(registry, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+        if (args.length > 2) server.setThreads(Integer.parseInt(args[2]));
+        if (args.length > 3) server.setMaxBatchRows(Integer.parseInt(args[3]));
+        if (args.length > 4) server.setMaxDelayNanos(Long.parseLong(args[4]) * 1_000);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            registry.close();
+        }));
+    }
+}
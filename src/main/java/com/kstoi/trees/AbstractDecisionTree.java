@@ -0,0 +1,739 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Training and prediction shared by {@link DecisionTree} and {@link PrunedDecisionTree}.
+ * Subclasses create the nodes and decide when a node stops splitting.
+ *
+ * <p>A build works on one array of row indices, every node owning a range of
+ * it that a split partitions in place, so training allocates per node rather
+ * than per row. Exact numeric splits sweep per attribute orders sorted once
+ * per column ({@link com.kstoi.utils.Column#sortedRows()}) and partitioned
+ * along with the rows.
+ *
+ * <p>With {@code bins > 0} numeric attributes are quantized into at most that
+ * many bins and splits are searched over per node class count histograms
+ * instead of the sorted rows. Only the smaller child of a split is scanned
+ * for its histograms, the larger one gets the parent's minus its siblings'.
+ *
+ * <p>With a {@code pool} set the candidate attributes of every node are
+ * scored concurrently. Ties are still broken by attribute order, so the
+ * tree is the same as a sequential build. With a {@code forkThreshold} as well
+ * the subtrees of large enough nodes are built as separate fork-join tasks.
+ *
+ * <p>With {@code maxFeatures > 0} every node scores only that many attributes,
+ * drawn at random from the ones it could split on. The draw is seeded from
+ * {@code seed} and the node itself, so a tree is reproducible however its
+ * subtrees are scheduled.
+ *
+ * <p>Every build records {@link TrainingMetrics}, and {@link TrainingEvents}
+ * when a flight recording is running.
+ */
+@Slf4j
+public abstract class AbstractDecisionTree<N extends AbstractNode<N>> implements DecTree<N> {
+    protected final Dataset dataset;
+    @Getter
+    @Setter
+    private int bins;
+    /**
+     * Pool the attributes of a node are scored on, null to score them sequentially.
+     */
+    @Getter
+    @Setter
+    private ForkJoinPool pool;
+    /**
+     * Smallest number of rows a subtree needs to be forked as its own task
+     * on {@link #pool}, 0 to build subtrees on the calling thread.
+     */
+    @Getter
+    @Setter
+    private int forkThreshold;
+    /**
+     * How the last build that forked subtrees used the pool, null until then.
+     */
+    @Getter
+    private ParallelismReport parallelismReport;
+    private ParallelBuild parallelBuild;
+    /**
+     * Where the time of the last build went, null until the first build.
+     */
+    @Getter
+    private TrainingMetrics trainingMetrics;
+    private Recorder recorder;
+    /**
+     * Number of attributes scored at every node, 0 for all of them.
+     */
+    @Getter
+    @Setter
+    private int maxFeatures;
+    @Getter
+    @Setter
+    private long seed;
+    /**
+     * How splits are scored, information gain unless set.
+     */
+    @Getter
+    @Setter
+    private SplitCriterion criterion = SplitCriterion.ENTROPY;
+    private int[] classOrder;
+    private Rows training;
+
+    protected AbstractDecisionTree(Dataset dataset) {
+        this.dataset = dataset;
+    }
+
+    protected abstract N newNode();
+
+    /**
+     * @return true when a node should become a leaf before looking for a split
+     */
+    protected boolean stopSplitting(int depth, int size) {
+        return false;
+    }
+
+    /**
+     * @return true when the best split found for a node is worth making
+     */
+    protected boolean acceptSplit(double gain) {
+        return true;
+    }
+
+    /**
+     * The rows of a build, shared by all its nodes. A node owns a range of
+     * {@code rows} and the same range of every presorted order; splitting it
+     * partitions those ranges in place, so nodes never share entries and
+     * subtrees can be built concurrently without copying rows.
+     */
+    private class Rows {
+        /** row indices, in the order of the dataset's lines within every node */
+        private final int[] rows;
+        /** numeric attribute to its rows sorted by value, empty on histogram builds */
+        private final Map<String, int[]> orders = new HashMap<>();
+        /** class code by row */
+        private final int[] labels;
+        private final int classes;
+        /** child a row goes to, by row, while a node is partitioned */
+        private final int[] branch;
+        /** partition buffer, indexed like {@code rows} */
+        private final int[] scratch;
+
+        Rows(List<String> attributes, Map<String, Boolean> isNumeric) {
+            var target = dataset.getColumn(dataset.getTarget());
+            rows = dataset.getRows();
+            labels = target.getCodes();
+            classes = target.cardinality();
+            branch = new int[target.getSize()];
+            scratch = new int[rows.length];
+            if (bins > 0) return;
+
+            // the lines may be a subset of the column rows, some of them repeated
+            int[] multiplicity = new int[target.getSize()];
+            for (int row : rows) multiplicity[row]++;
+            for (var attr : attributes) {
+                if (!isNumeric.getOrDefault(attr, false)) continue;
+                int[] order = new int[rows.length];
+                int i = 0;
+                for (int row : dataset.getColumn(attr).sortedRows()) {
+                    for (int k = 0; k < multiplicity[row]; k++) order[i++] = row;
+                }
+                orders.put(attr, order);
+            }
+        }
+
+        /**
+         * Stable partition of {@code [from, to)} of {@code array} by {@link #branch},
+         * child {@code i} ending up in {@code [bounds[i], bounds[i + 1])}.
+         */
+        void partition(int[] array, int[] bounds) {
+            int from = bounds[0], to = bounds[bounds.length - 1];
+            int[] next = Arrays.copyOf(bounds, bounds.length - 1);
+            for (int i = from; i < to; i++) {
+                int row = array[i];
+                scratch[next[branch[row]]++] = row;
+            }
+            System.arraycopy(scratch, from, array, from, to - from);
+        }
+    }
+
+    private Map<String, int[]> histograms(int from, int to, List<String> attributes, Map<String, Boolean> isNumeric) {
+        Map<String, int[]> histograms = new HashMap<>();
+        for (String attr : attributes) {
+            if (isNumeric.getOrDefault(attr, false)) {
+                histograms.put(attr, SplitSearch.histogram(training.rows, from, to,
+                        dataset.getColumn(attr).quantize(bins), training.labels, training.classes));
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Histograms of the children of a split. All children but the largest are
+     * scanned, the largest reuses the parent's arrays minus its siblings'.
+     */
+    private List<Map<String, int[]>> childHistograms(Map<String, int[]> parent, int[] bounds,
+                                                     List<String> attributes, Map<String, Boolean> isNumeric) {
+        long start = System.nanoTime();
+        int children = bounds.length - 1;
+        int largest = 0;
+        for (int i = 1; i < children; i++) {
+            if (bounds[i + 1] - bounds[i] > bounds[largest + 1] - bounds[largest]) largest = i;
+        }
+        List<Map<String, int[]>> result = new ArrayList<>();
+        Map<String, int[]> remainder = new HashMap<>();
+        for (String attr : attributes) {
+            if (isNumeric.getOrDefault(attr, false)) remainder.put(attr, parent.get(attr));
+        }
+        for (int i = 0; i < children; i++) {
+            if (i == largest) {
+                result.add(remainder);
+                continue;
+            }
+            var histograms = histograms(bounds[i], bounds[i + 1], attributes, isNumeric);
+            histograms.forEach((attr, hist) -> SplitSearch.subtract(remainder.get(attr), hist));
+            result.add(histograms);
+        }
+        recorder.histograms.add(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * @return {gain, threshold} of an attribute, threshold is 0 for nominal ones
+     */
+    private double[] score(int from, int to, String attr, Map<String, Boolean> isNumeric,
+                           Map<String, int[]> histograms, int[] counts) {
+        long start = System.nanoTime();
+        var column = dataset.getColumn(attr);
+        if (!isNumeric.getOrDefault(attr, false)) {
+            double gain = SplitSearch.nominalGain(training.rows, from, to, column, training.labels, counts, criterion);
+            recorder.nominalSearch.add(System.nanoTime() - start);
+            return new double[]{gain, 0};
+        }
+        var score = histograms != null
+                ? SplitSearch.bestThresholdHistogram(histograms.get(attr), column.quantize(bins),
+                        training.classes, to - from, criterion)
+                : SplitSearch.bestThresholdNumeric(training.orders.get(attr), from, to, column.getValues(),
+                        training.labels, counts, criterion);
+        recorder.numericSearch.add(System.nanoTime() - start);
+        return score;
+    }
+
+    /**
+     * Scores the attributes of a node, concurrently on {@link #pool} when one is set.
+     * The scores are returned in attribute order so the caller picks the same
+     * attribute as a sequential build does.
+     */
+    private double[][] scoreAttributes(int from, int to, List<String> attributes,
+                                       Map<String, Boolean> isNumeric, Map<String, int[]> histograms, int[] counts) {
+        double[][] scores = new double[attributes.size()][];
+        if (pool == null || attributes.size() < 2) {
+            for (int i = 0; i < attributes.size(); i++) {
+                scores[i] = score(from, to, attributes.get(i), isNumeric, histograms, counts);
+            }
+            return scores;
+        }
+        var task = new ScoreTask(from, to, attributes, isNumeric, histograms, counts, scores, 0, attributes.size());
+        if (ForkJoinTask.getPool() == pool) task.invoke();
+        else pool.invoke(task);
+        return scores;
+    }
+
+    private class ScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final List<String> attributes;
+        private final Map<String, Boolean> isNumeric;
+        private final Map<String, int[]> histograms;
+        private final int[] counts;
+        private final double[][] scores;
+        private final int first, last;
+
+        ScoreTask(int from, int to, List<String> attributes,
+                  Map<String, Boolean> isNumeric, Map<String, int[]> histograms, int[] counts,
+                  double[][] scores, int first, int last) {
+            this.from = from;
+            this.to = to;
+            this.attributes = attributes;
+            this.isNumeric = isNumeric;
+            this.histograms = histograms;
+            this.counts = counts;
+            this.scores = scores;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                scores[first] = score(from, to, attributes.get(first), isNumeric, histograms, counts);
+                return;
+            }
+            int mid = (first + last) >>> 1;
+            invokeAll(new ScoreTask(from, to, attributes, isNumeric, histograms, counts, scores, first, mid),
+                    new ScoreTask(from, to, attributes, isNumeric, histograms, counts, scores, mid, last));
+        }
+    }
+
+    /**
+     * Builds the subtrees of a split, child {@code i} owning the rows
+     * {@code [bounds[i], bounds[i + 1])}. On a parallel build children with at
+     * least {@link #forkThreshold} rows are forked, the rest are built by the
+     * calling task.
+     */
+    private List<N> buildChildren(int[] bounds,
+                                  List<int[]> counts,
+                                  List<Map<String, int[]>> histograms,
+                                  List<String> attributes,
+                                  int depth,
+                                  Map<String, Boolean> isNumeric) {
+        int children = bounds.length - 1;
+        List<N> nodes = new ArrayList<>(Collections.nCopies(children, null));
+        List<Integer> forked = new ArrayList<>();
+        List<SubtreeTask> tasks = new ArrayList<>();
+        for (int i = 0; i < children; i++) {
+            var childHistograms = histograms == null ? null : histograms.get(i);
+            if (parallelBuild != null && bounds[i + 1] - bounds[i] >= forkThreshold) {
+                var task = new SubtreeTask(bounds[i], bounds[i + 1], attributes, depth, isNumeric, childHistograms,
+                        counts.get(i));
+                task.fork();
+                forked.add(i);
+                tasks.add(task);
+                parallelBuild.forked.increment();
+            } else {
+                nodes.set(i, buildTree(bounds[i], bounds[i + 1], attributes, depth, isNumeric, childHistograms,
+                        counts.get(i)));
+                if (parallelBuild != null) parallelBuild.inline.increment();
+            }
+        }
+        // join the most recently forked first, it is the likeliest to still be on this worker's queue
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            nodes.set(forked.get(i), parallelBuild.join(tasks.get(i)));
+        }
+        return nodes;
+    }
+
+    private class SubtreeTask extends RecursiveTask<N> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final List<String> attributes;
+        private final int depth;
+        private final Map<String, Boolean> isNumeric;
+        private final Map<String, int[]> histograms;
+        private final int[] counts;
+
+        SubtreeTask(int from, int to, List<String> attributes, int depth,
+                    Map<String, Boolean> isNumeric, Map<String, int[]> histograms, int[] counts) {
+            this.from = from;
+            this.to = to;
+            this.attributes = attributes;
+            this.depth = depth;
+            this.isNumeric = isNumeric;
+            this.histograms = histograms;
+            this.counts = counts;
+        }
+
+        @Override
+        protected N compute() {
+            long start = System.nanoTime();
+            parallelBuild.enter();
+            try {
+                return buildTree(from, to, attributes, depth, isNumeric, histograms, counts);
+            } finally {
+                parallelBuild.exit();
+                parallelBuild.busy.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Counters of a build that forks subtrees. Time spent waiting on a join is
+     * subtracted from the time spent in tasks, so busy time over wall time is
+     * the average number of workers that were building the tree.
+     */
+    private class ParallelBuild {
+        private final LongAdder forked = new LongAdder();
+        private final LongAdder inline = new LongAdder();
+        private final LongAdder busy = new LongAdder();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        void enter() {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+        }
+
+        void exit() {
+            active.decrementAndGet();
+        }
+
+        N join(SubtreeTask task) {
+            exit();
+            long start = System.nanoTime();
+            try {
+                return task.join();
+            } finally {
+                busy.add(start - System.nanoTime());
+                enter();
+            }
+        }
+
+        ParallelismReport report(long wallNanos) {
+            return new ParallelismReport(forked.intValue(), inline.intValue(), peak.get(), wallNanos, busy.sum());
+        }
+    }
+
+    /**
+     * Counters of a build behind its {@link TrainingMetrics}, shared by the threads building it.
+     */
+    private static class Recorder {
+        private final LongAdder numericSearch = new LongAdder();
+        private final LongAdder nominalSearch = new LongAdder();
+        private final LongAdder histograms = new LongAdder();
+        private final LongAdder partition = new LongAdder();
+        private final LongAdder searchedRows = new LongAdder();
+        private final AtomicIntegerArray nodes;
+        private final AtomicInteger leaves = new AtomicInteger();
+
+        /**
+         * @param maxDepth deepest a node can be, every split uses up an attribute
+         */
+        Recorder(int maxDepth) {
+            nodes = new AtomicIntegerArray(maxDepth + 1);
+        }
+
+        TrainingMetrics report(int rows, long wallNanos, long setupNanos, long allocatedBytes) {
+            int depth = nodes.length();
+            while (depth > 0 && nodes.get(depth - 1) == 0) depth--;
+            int[] nodesPerDepth = new int[depth];
+            for (int d = 0; d < depth; d++) nodesPerDepth[d] = nodes.get(d);
+            return new TrainingMetrics(rows, wallNanos, setupNanos, numericSearch.sum(), nominalSearch.sum(),
+                    histograms.sum(), partition.sum(), searchedRows.sum(), nodesPerDepth, leaves.get(),
+                    allocatedBytes);
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or by every live thread of
+     * the JVM when a build spreads over a pool, -1 when the JVM does not count them.
+     */
+    private static long allocatedBytes(boolean allThreads) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        if (!allThreads) return threads.getCurrentThreadAllocatedBytes();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Draws {@link #maxFeatures} of a node's attributes, kept in attribute order.
+     * The node is identified by its depth, size and first row.
+     */
+    private List<String> sampleAttributes(int from, int to, List<String> attributes, int depth) {
+        long nodeSeed = seed;
+        nodeSeed = nodeSeed * 31 + depth;
+        nodeSeed = nodeSeed * 31 + (to - from);
+        nodeSeed = nodeSeed * 31 + training.rows[from];
+        var random = new SplittableRandom(nodeSeed);
+        int[] order = new int[attributes.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        boolean[] picked = new boolean[order.length];
+        for (int i = 0; i < maxFeatures; i++) {
+            int j = i + random.nextInt(order.length - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+            picked[order[i]] = true;
+        }
+        List<String> sample = new ArrayList<>(maxFeatures);
+        for (int i = 0; i < picked.length; i++) {
+            if (picked[i]) sample.add(attributes.get(i));
+        }
+        return sample;
+    }
+
+    /**
+     * Builds the subtree of the rows {@code [from, to)} of {@link #training}.
+     *
+     * @param counts rows of every class in the range, computed by the parent
+     */
+    private N buildTree(int from,
+                        int to,
+                        List<String> attributes,
+                        int depth,
+                        Map<String, Boolean> isNumeric,
+                        Map<String, int[]> histograms,
+                        int[] counts) {
+        recorder.nodes.incrementAndGet(depth);
+        var event = new TrainingEvents.Split();
+        event.begin();
+
+        N node = newNode();
+        var classes = dataset.getClasses();
+        node.label = classes.get(SplitSearch.majority(counts, classOrder));
+        node.counts = counts;
+        node.samples = to - from;
+
+        int present = 0;
+        for (int count : counts) {
+            if (count > 0) present++;
+        }
+        if (present == 1 || attributes.isEmpty() || stopSplitting(depth, to - from)) {
+            return leaf(node);
+        }
+
+        double bestGain = 0.0;
+        String bestAttr = null;
+        Double bestThreshold = null;
+        boolean numeric = false;
+
+        var candidates = maxFeatures > 0 && maxFeatures < attributes.size()
+                ? sampleAttributes(from, to, attributes, depth) : attributes;
+        double[][] scores = scoreAttributes(from, to, candidates, isNumeric, histograms, counts);
+        recorder.searchedRows.add(to - from);
+        for (int i = 0; i < candidates.size(); i++) {
+            String attr = candidates.get(i);
+            double gain = scores[i][0];
+            double thresh = scores[i][1];
+
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestAttr = attr;
+                if (isNumeric.getOrDefault(attr, false)) {
+                    bestThreshold = thresh;
+                    numeric = true;
+                } else {
+                    bestThreshold = null;
+                    numeric = false;
+                }
+            }
+        }
+
+        if (bestAttr == null || !acceptSplit(bestGain)) {
+            return leaf(node);
+        }
+
+        node.attribute = bestAttr;
+        node.threshold = bestThreshold;
+        node.gain = bestGain;
+
+        List<String> newAttributes = new ArrayList<>(attributes);
+        newAttributes.remove(bestAttr);
+
+        long partitionStart = System.nanoTime();
+        var column = dataset.getColumn(bestAttr);
+        int groups = numeric ? 2 : column.cardinality();
+        int[] rows = training.rows;
+        int[] branch = training.branch;
+        int[] labels = training.labels;
+        int[] groupCounts = new int[groups * counts.length];
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int group = numeric ? (column.getValues()[row] <= bestThreshold ? 0 : 1) : column.getCode(row);
+            branch[row] = group;
+            groupCounts[group * counts.length + labels[row]]++;
+        }
+
+        // only groups with rows become children, a numeric split always has both
+        int[] sizes = new int[groups];
+        int children = 0;
+        for (int g = 0; g < groups; g++) {
+            for (int c = 0; c < counts.length; c++) sizes[g] += groupCounts[g * counts.length + c];
+            if (sizes[g] > 0) children++;
+        }
+        int[] groupBounds = new int[groups + 1];
+        groupBounds[0] = from;
+        for (int g = 0; g < groups; g++) groupBounds[g + 1] = groupBounds[g] + sizes[g];
+        training.partition(rows, groupBounds);
+        for (var attr : newAttributes) {
+            var order = training.orders.get(attr);
+            if (order != null) training.partition(order, groupBounds);
+        }
+
+        int[] bounds = new int[children + 1];
+        int[] childGroups = new int[children];
+        List<int[]> childCounts = new ArrayList<>(children);
+        bounds[0] = from;
+        for (int g = 0, i = 0; g < groups; g++) {
+            if (sizes[g] == 0) continue;
+            childGroups[i] = g;
+            childCounts.add(Arrays.copyOfRange(groupCounts, g * counts.length, (g + 1) * counts.length));
+            bounds[++i] = groupBounds[g + 1];
+        }
+        recorder.partition.add(System.nanoTime() - partitionStart);
+        if (event.shouldCommit()) {
+            event.depth = depth;
+            event.rows = to - from;
+            event.attribute = bestAttr;
+            event.gain = bestGain;
+            event.commit();
+        }
+        var nodes = buildChildren(bounds, childCounts,
+                histograms == null ? null : childHistograms(histograms, bounds, newAttributes, isNumeric),
+                newAttributes, depth + 1, isNumeric);
+        if (numeric) {
+            node.left = nodes.get(0);
+            node.right = nodes.get(1);
+        } else {
+            var dictionary = column.getDictionary();
+            for (int i = 0; i < children; i++) {
+                node.children.put(dictionary.get(childGroups[i]), nodes.get(i));
+            }
+        }
+
+        return node;
+    }
+
+    private N leaf(N node) {
+        node.isLeaf = true;
+        recorder.leaves.incrementAndGet();
+        return node;
+    }
+
+    /**
+     * Class codes in the order a {@link HashMap} of the labels iterates them,
+     * which is how majority ties have always been broken.
+     */
+    private static int[] classOrder(List<String> classes) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (int code = 0; code < classes.size(); code++) codes.put(classes.get(code), code);
+        int[] order = new int[classes.size()];
+        int i = 0;
+        for (int code : codes.values()) order[i++] = code;
+        return order;
+    }
+
+    /**
+     * Builds the tree and records its {@link #getTrainingMetrics()}. Allocation
+     * is counted on the calling thread, or over the whole JVM when a {@link #pool}
+     * is set, which includes whatever else runs meanwhile.
+     */
+    public N build() {
+        log.info("Building tree");
+        long start = System.nanoTime();
+        boolean allThreads = pool != null;
+        long allocatedBefore = allocatedBytes(allThreads);
+        var event = new TrainingEvents.Build();
+        event.begin();
+
+        Map<String, Boolean> isNumeric = new HashMap<>();
+        for (var attribute : dataset.getAttributes()) {
+            isNumeric.put(attribute, dataset.isNumeric(attribute));
+        }
+
+        String targetAttr = dataset.getAttributes().get(dataset.getAttributes().size() - 1);
+        var attributes  = new ArrayList<String>(dataset.getAttributes());
+        attributes.remove(dataset.getAttributes().size()-1);
+        log.info("Target attribute is {}",targetAttr);
+        if (bins > 0) {
+            log.info("Quantizing numeric attributes into {} bins", bins);
+            dataset.quantize(bins);
+        }
+        training = new Rows(attributes, isNumeric);
+        recorder = new Recorder(attributes.size());
+        int size = training.rows.length;
+        try {
+            Map<String, int[]> histograms = bins > 0 ? histograms(0, size, attributes, isNumeric) : null;
+            classOrder = classOrder(dataset.getClasses());
+            int[] counts = SplitSearch.classCounts(training.rows, 0, size, training.labels, training.classes);
+            long setup = System.nanoTime() - start;
+            N root;
+            if (pool == null || forkThreshold <= 0) {
+                root = buildTree(0, size, attributes, 0, isNumeric, histograms, counts);
+            } else {
+                parallelBuild = new ParallelBuild();
+                long parallelStart = System.nanoTime();
+                var task = new SubtreeTask(0, size, attributes, 0, isNumeric, histograms, counts);
+                root = ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task);
+                parallelismReport = parallelBuild.report(System.nanoTime() - parallelStart);
+                log.info("Built tree {}", parallelismReport);
+            }
+            long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(allThreads) - allocatedBefore;
+            trainingMetrics = recorder.report(size, System.nanoTime() - start, setup, allocated);
+            if (event.shouldCommit()) {
+                event.builder = getClass().getSimpleName();
+                event.rows = size;
+                event.nodes = trainingMetrics.getNodes();
+                event.leaves = trainingMetrics.getLeaves();
+                event.depth = trainingMetrics.getNodesPerDepth().length;
+                event.numericSearch = trainingMetrics.getNumericSearchNanos();
+                event.nominalSearch = trainingMetrics.getNominalSearchNanos();
+                event.histograms = trainingMetrics.getHistogramNanos();
+                event.partition = trainingMetrics.getPartitionNanos();
+                event.allocated = allocated;
+                event.commit();
+            }
+            log.debug("Built tree {}", trainingMetrics);
+            return root;
+        } finally {
+            parallelBuild = null;
+            training = null;
+            recorder = null;
+        }
+    }
+    /**
+     * Flattens a tree built by this builder for fast scoring, see {@link CompiledTree}.
+     */
+    public CompiledTree compile(N root) {
+        return CompiledTree.compile(root, dataset);
+    }
+
+    /**
+     * Compiles the tree and scores the dataset column-wise in blocks,
+     * spread over {@link #pool} when one is set.
+     */
+    @Override
+    public String[] predictBatch(N root, Dataset dataset) {
+        return compile(root).predictBatchLabels(dataset, pool);
+    }
+
+    public String predict(N root, Dataset.Line instance) {
+        return predictNode(root, instance);
+    }
+
+    /**
+     * Walks a trained tree down to the label of a line; needs nothing of the
+     * learner that built it.
+     */
+    public static <N extends AbstractNode<N>> String predictNode(N root, Dataset.Line instance) {
+        if (root.isLeaf) return root.label;
+
+        if (root.threshold != null) {
+            double val = instance.getDouble(root.attribute);
+            if (val <= root.threshold && root.left != null) {
+                return predictNode(root.left, instance);
+            } else if (root.right != null) {
+                return predictNode(root.right, instance);
+            } else {
+                return root.label;
+            }
+        }
+
+        String val = instance.get(root.attribute);
+        N child = root.children.get(val);
+        if (child != null) {
+            return predictNode(child, instance);
+        } else {
+            return root.label;
+        }
+    }
+}
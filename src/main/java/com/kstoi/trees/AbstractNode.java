@@ -0,0 +1,54 @@
+package com.kstoi.trees;
+
+import lombok.ToString;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Node shared by the tree implementations. A node is either a leaf,
+ * a numeric split on {@code threshold} with {@code left}/{@code right}
+ * or a nominal split with one child per value in {@code children}.
+ *
+ * <p>Built nodes also keep what the builder knew about them, so
+ * {@link TreePruner} can prune a tree without the training rows.
+ */
+@ToString
+public abstract class AbstractNode<N extends AbstractNode<N>> implements TreeNode {
+    String attribute;
+    Double threshold;
+    String label;
+    boolean isLeaf = false;
+    Map<String, N> children = new HashMap<>();
+    N left = null, right = null;
+    /** training rows of every class, in the order of the dataset's classes */
+    int[] counts;
+    int samples;
+    /** gain of the split, 0 for a leaf */
+    double gain;
+
+    @Override
+    public void forEach(Consumer<Map<String, Object>> consumer,int x,int y,int dx,int dy) {
+        Map<String,Object> map = new HashMap<>();
+        map.put("point",new Point(x+dx,y+dy));
+        map.put("attr",attribute);
+        map.put("label",label);
+        map.put("isLeaf",isLeaf);
+        map.put("parent",new Point(x,y));
+        consumer.accept(map);
+        if (!isLeaf && children!=null && !children.isEmpty()) {
+            int i = 0;
+            int ddx = children.size()/2;
+
+            for (Map.Entry<String, N> entry : children.entrySet()) {
+                N node = entry.getValue();
+                if (node != null) {
+                    node.forEach(consumer, x, y, dx + (i-ddx)*250, dy + 100);
+                }
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The trees of a {@link GradientBoostedTrees} model flattened into parallel
+ * arrays. A row's margin is the base score plus the leaf value it reaches in
+ * every tree; the positive class, code 1, is predicted above a margin of 0.
+ *
+ * <p>Nodes of all trees share one set of arrays, {@code roots} holding the
+ * first node of every tree. {@code feature} is -1 for a leaf, a split sends
+ * values up to {@code threshold} to {@code left} and the rest to {@code right}.
+ * Nominal features are split on their codes, as they were trained.
+ */
+public class CompiledBoostedTrees implements CompiledModel {
+    private static final int BLOCK_SIZE = 1024;
+
+    final FeatureSchema schema;
+    final double baseScore;
+    final int[] roots;
+    final int[] feature;
+    final double[] threshold;
+    final int[] left;
+    final int[] right;
+    final double[] value;
+
+    CompiledBoostedTrees(FeatureSchema schema, double baseScore, int[] roots,
+                         int[] feature, double[] threshold, int[] left, int[] right, double[] value) {
+        this.schema = schema;
+        this.baseScore = baseScore;
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.left = left;
+        this.right = right;
+        this.value = value;
+    }
+
+    static CompiledBoostedTrees compile(GradientBoostedTrees.Ensemble ensemble, FeatureSchema schema) {
+        List<GradientBoostedTrees.Node> nodes = new ArrayList<>();
+        int[] roots = new int[ensemble.trees.size()];
+        for (int t = 0; t < roots.length; t++) {
+            roots[t] = nodes.size();
+            collect(ensemble.trees.get(t), nodes);
+        }
+        int size = nodes.size();
+        int[] feature = new int[size];
+        double[] threshold = new double[size];
+        int[] left = new int[size];
+        int[] right = new int[size];
+        double[] value = new double[size];
+        // preorder: a split's left child follows it, its right child follows the left subtree
+        int[] subtreeEnd = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            var node = nodes.get(i);
+            subtreeEnd[i] = node.isLeaf ? i + 1 : subtreeEnd[subtreeEnd[i + 1]];
+        }
+        for (int i = 0; i < size; i++) {
+            var node = nodes.get(i);
+            value[i] = node.value;
+            if (node.isLeaf) {
+                feature[i] = -1;
+                continue;
+            }
+            feature[i] = node.feature;
+            threshold[i] = node.threshold;
+            left[i] = i + 1;
+            right[i] = subtreeEnd[i + 1];
+        }
+        return new CompiledBoostedTrees(schema, ensemble.baseScore, roots, feature, threshold, left, right, value);
+    }
+
+    private static void collect(GradientBoostedTrees.Node node, List<GradientBoostedTrees.Node> nodes) {
+        nodes.add(node);
+        if (node.isLeaf) return;
+        collect(node.left, nodes);
+        collect(node.right, nodes);
+    }
+
+    /**
+     * @return the log odds of the positive class for a feature vector
+     */
+    public double margin(double[] features) {
+        double margin = baseScore;
+        for (int root : roots) {
+            int node = root;
+            while (feature[node] >= 0) {
+                node = features[feature[node]] <= threshold[node] ? left[node] : right[node];
+            }
+            margin += value[node];
+        }
+        return margin;
+    }
+
+    public double probability(double[] features) {
+        return GradientBoostedTrees.sigmoid(margin(features));
+    }
+
+    @Override
+    public int predict(double[] features) {
+        return margin(features) > 0 ? 1 : 0;
+    }
+
+    /**
+     * Predicts every line of a dataset straight from its columns, a block of
+     * {@value #BLOCK_SIZE} rows at a time through all trees; with a pool the
+     * blocks are spread over its workers.
+     */
+    @Override
+    public int[] predictBatch(Dataset dataset, ForkJoinPool pool) {
+        int[] rows = dataset.getRows();
+        int[] predictions = new int[rows.length];
+        var binding = schema.bind(dataset);
+        var task = new BatchTask(binding, rows, predictions, 0, rows.length);
+        if (pool == null || rows.length <= BLOCK_SIZE) task.predictBlocks();
+        else if (ForkJoinTask.getPool() == pool) task.invoke();
+        else pool.invoke(task);
+        return predictions;
+    }
+
+    private void predictBlock(FeatureSchema.Binding binding, int[] rows, int[] predictions, int from, int to) {
+        double[] margins = new double[to - from];
+        Arrays.fill(margins, baseScore);
+        for (int root : roots) {
+            for (int i = from; i < to; i++) {
+                int node = root;
+                while (feature[node] >= 0) {
+                    node = binding.value(feature[node], rows[i]) <= threshold[node] ? left[node] : right[node];
+                }
+                margins[i - from] += value[node];
+            }
+        }
+        for (int i = from; i < to; i++) predictions[i] = margins[i - from] > 0 ? 1 : 0;
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FeatureSchema.Binding binding;
+        private final int[] rows;
+        private final int[] predictions;
+        private final int from, to;
+
+        BatchTask(FeatureSchema.Binding binding, int[] rows, int[] predictions, int from, int to) {
+            this.binding = binding;
+            this.rows = rows;
+            this.predictions = predictions;
+            this.from = from;
+            this.to = to;
+        }
+
+        void predictBlocks() {
+            for (int block = from; block < to; block += BLOCK_SIZE) {
+                predictBlock(binding, rows, predictions, block, Math.min(block + BLOCK_SIZE, to));
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCK_SIZE) {
+                predictBlock(binding, rows, predictions, from, to);
+                return;
+            }
+            int blocks = (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int mid = from + blocks / 2 * BLOCK_SIZE;
+            invokeAll(new BatchTask(binding, rows, predictions, from, mid),
+                    new BatchTask(binding, rows, predictions, mid, to));
+        }
+    }
+
+    @Override
+    public double[] encode(Dataset.Line line, double[] out) {
+        return schema.encode(line, out);
+    }
+
+    @Override
+    public double[] encode(String[] values, double[] out, int offset) {
+        return schema.encode(values, out, offset);
+    }
+
+    @Override
+    public List<String> getFeatures() {
+        return schema.features;
+    }
+
+    @Override
+    public List<String> getClasses() {
+        return schema.classes;
+    }
+
+    public int size() {
+        return roots.length;
+    }
+}
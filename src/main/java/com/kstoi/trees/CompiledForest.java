@@ -0,0 +1,81 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The compiled trees of a {@link RandomForest}, predicting by majority vote.
+ * Ties go to the class with the lowest code. All trees share the features
+ * and classes of the first.
+ */
+public class CompiledForest implements CompiledModel {
+    private final CompiledTree[] trees;
+
+    CompiledForest(CompiledTree[] trees) {
+        if (trees.length == 0) throw new IllegalArgumentException("A forest needs at least one tree");
+        this.trees = trees;
+    }
+
+    @Override
+    public List<String> getFeatures() {
+        return trees[0].getFeatures();
+    }
+
+    @Override
+    public List<String> getClasses() {
+        return trees[0].getClasses();
+    }
+
+    CompiledTree[] getTrees() {
+        return trees;
+    }
+
+    @Override
+    public int predict(double[] features) {
+        int[] votes = new int[getClasses().size()];
+        for (var tree : trees) votes[tree.predict(features)]++;
+        return argmax(votes, 0, votes.length);
+    }
+
+    /**
+     * Scores the dataset one tree at a time, each tree column-wise in blocks
+     * as {@link CompiledTree#predictBatch(Dataset, ForkJoinPool)} does.
+     */
+    @Override
+    public int[] predictBatch(Dataset dataset, ForkJoinPool pool) {
+        int classes = getClasses().size();
+        int rows = dataset.getData().size();
+        int[] votes = new int[rows * classes];
+        for (var tree : trees) {
+            int[] predictions = tree.predictBatch(dataset, pool);
+            for (int i = 0; i < rows; i++) votes[i * classes + predictions[i]]++;
+        }
+        int[] predictions = new int[rows];
+        for (int i = 0; i < rows; i++) predictions[i] = argmax(votes, i * classes, classes);
+        return predictions;
+    }
+
+    private static int argmax(int[] votes, int from, int length) {
+        int best = 0;
+        for (int c = 1; c < length; c++) {
+            if (votes[from + c] > votes[from + best]) best = c;
+        }
+        return best;
+    }
+
+    @Override
+    public double[] encode(Dataset.Line line, double[] out) {
+        return trees[0].encode(line, out);
+    }
+
+    @Override
+    public double[] encode(String[] values, double[] out, int offset) {
+        return trees[0].encode(values, out, offset);
+    }
+
+    public int size() {
+        return trees.length;
+    }
+}
@@ -0,0 +1,73 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A trained model in its scoring form, see {@link CompiledTree} and {@link CompiledForest}.
+ * Feature vectors are laid out as {@link #getFeatures()} and predictions are
+ * class codes into {@link #getClasses()}.
+ */
+public interface CompiledModel {
+    List<String> getFeatures();
+
+    List<String> getClasses();
+
+    /**
+     * @return the class code predicted for a feature vector
+     */
+    int predict(double[] features);
+
+    /**
+     * Predicts every line of a dataset, in the order of {@link Dataset#getData()},
+     * spread over {@code pool} when it is not null.
+     */
+    int[] predictBatch(Dataset dataset, ForkJoinPool pool);
+
+    /**
+     * Writes the feature vector of a row into {@code out} and returns it.
+     */
+    double[] encode(Dataset.Line line, double[] out);
+
+    /**
+     * Writes the feature vector of raw attribute values, laid out as
+     * {@link #getFeatures()}, into {@code out} from {@code offset} and returns it.
+     *
+     * @throws IllegalArgumentException when the count of values is wrong or a numeric feature's value is not a number
+     */
+    double[] encode(String[] values, double[] out, int offset);
+
+    /**
+     * Predicts {@code rows} feature vectors packed one after the other in {@code features}.
+     */
+    default int[] predictBatch(double[] features, int rows) {
+        int width = getFeatures().size();
+        int[] predictions = new int[rows];
+        var vector = new double[width];
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(features, r * width, vector, 0, width);
+            predictions[r] = predict(vector);
+        }
+        return predictions;
+    }
+
+    default String[] predictBatchLabels(Dataset dataset, ForkJoinPool pool) {
+        int[] predictions = predictBatch(dataset, pool);
+        var classes = getClasses();
+        var labels = new String[predictions.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = classes.get(predictions[i]);
+        }
+        return labels;
+    }
+
+    default String predictLabel(double[] features) {
+        return getClasses().get(predict(features));
+    }
+
+    default String predict(Dataset.Line line) {
+        return predictLabel(encode(line, new double[getFeatures().size()]));
+    }
+}
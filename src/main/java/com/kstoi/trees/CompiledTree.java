@@ -0,0 +1,288 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A trained tree flattened into parallel arrays for scoring.
+ *
+ * <p>Rows are scored as {@code double[]} feature vectors laid out as
+ * {@link #getFeatures()}: numeric attributes hold their value, nominal ones the
+ * code of their value in the dictionary the tree was trained with, or -1 for a
+ * value the tree has never seen. {@link #encode(Dataset.Line, double[])} builds
+ * such a vector from a dataset row.
+ *
+ * <p>Nodes are numbered in depth first order with the root at 0. A node's
+ * children are {@code arity} consecutive entries of the {@code children} table
+ * starting at {@code first}: left and right for a numeric split, one entry per
+ * dictionary code for a nominal split, -1 for values that had no rows.
+ */
+public class CompiledTree implements CompiledModel {
+    private static final int BLOCK_SIZE = 1024;
+
+    final FeatureSchema schema;
+
+    final int[] feature;
+    final boolean[] nominal;
+    final double[] threshold;
+    final int[] first;
+    final int[] arity;
+    final int[] label;
+    final int[] children;
+
+    CompiledTree(FeatureSchema schema, int[] feature, boolean[] nominal, double[] threshold,
+                 int[] first, int[] arity, int[] label, int[] children) {
+        this.schema = schema;
+        this.feature = feature;
+        this.nominal = nominal;
+        this.threshold = threshold;
+        this.first = first;
+        this.arity = arity;
+        this.label = label;
+        this.children = children;
+    }
+
+    /**
+     * Flattens a tree trained on {@code dataset}.
+     */
+    public static <N extends AbstractNode<N>> CompiledTree compile(N root, Dataset dataset) {
+        return compile(root, FeatureSchema.of(dataset));
+    }
+
+    /**
+     * Flattens a tree whose labels and nominal values all are in {@code schema}.
+     *
+     * @throws IllegalStateException for a label or a nominal value the schema has no code for
+     */
+    static <N extends AbstractNode<N>> CompiledTree compile(N root, FeatureSchema schema) {
+        Map<String, Integer> classIndex = new HashMap<>();
+        for (int c = 0; c < schema.classes.size(); c++) classIndex.put(schema.classes.get(c), c);
+        Map<String, Integer> featureIndex = new HashMap<>();
+        for (int f = 0; f < schema.features.size(); f++) featureIndex.put(schema.features.get(f), f);
+
+        List<N> nodes = new ArrayList<>();
+        collect(root, nodes);
+        Map<N, Integer> ids = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) ids.put(nodes.get(i), i);
+
+        int size = nodes.size();
+        int[] feature = new int[size];
+        boolean[] nominal = new boolean[size];
+        double[] threshold = new double[size];
+        int[] first = new int[size];
+        int[] arity = new int[size];
+        int[] label = new int[size];
+        int[] children = new int[0];
+        int childCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            N node = nodes.get(i);
+            if (node.label == null) {
+                label[i] = -1;
+            } else {
+                Integer code = classIndex.get(node.label);
+                if (code == null) throw new IllegalStateException("class " + node.label + " is not in the schema");
+                label[i] = code;
+            }
+            if (node.isLeaf || node.attribute == null) {
+                feature[i] = -1;
+                continue;
+            }
+            int f = featureIndex.get(node.attribute);
+            feature[i] = f;
+            first[i] = childCount;
+            if (node.threshold != null) {
+                threshold[i] = node.threshold;
+                arity[i] = 2;
+            } else {
+                nominal[i] = true;
+                arity[i] = schema.dictionaries[f].size();
+            }
+            if (children.length < childCount + arity[i]) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + arity[i]));
+            }
+            Arrays.fill(children, childCount, childCount + arity[i], -1);
+            if (node.threshold != null) {
+                if (node.left != null) children[childCount] = ids.get(node.left);
+                if (node.right != null) children[childCount + 1] = ids.get(node.right);
+            } else {
+                for (var entry : node.children.entrySet()) {
+                    Integer code = schema.dictionaries[f].get(entry.getKey());
+                    if (code == null) {
+                        throw new IllegalStateException(node.attribute + " value " + entry.getKey() + " is not in the schema");
+                    }
+                    if (entry.getValue() != null) children[childCount + code] = ids.get(entry.getValue());
+                }
+            }
+            childCount += arity[i];
+        }
+
+        return new CompiledTree(schema, feature, nominal, threshold,
+                first, arity, label, Arrays.copyOf(children, childCount));
+    }
+
+    private static <N extends AbstractNode<N>> void collect(N node, List<N> nodes) {
+        nodes.add(node);
+        if (node.isLeaf) return;
+        if (node.left != null) collect(node.left, nodes);
+        if (node.right != null) collect(node.right, nodes);
+        for (N child : node.children.values()) {
+            if (child != null) collect(child, nodes);
+        }
+    }
+
+    @Override
+    public int predict(double[] features) {
+        int node = 0;
+        while (true) {
+            int f = feature[node];
+            if (f < 0) return label[node];
+            int next = next(node, features[f]);
+            if (next < 0) return label[node];
+            node = next;
+        }
+    }
+
+    /**
+     * @return the child of a split node a value goes to, -1 when there is none
+     */
+    private int next(int node, double value) {
+        if (nominal[node]) {
+            int code = (int) value;
+            return code >= 0 && code < arity[node] ? children[first[node] + code] : -1;
+        }
+        return children[first[node] + (value <= threshold[node] ? 0 : 1)];
+    }
+
+    /**
+     * Predicts every line of a dataset straight from its columns. Rows are
+     * scored in blocks of {@value #BLOCK_SIZE}; with a pool the blocks are
+     * spread over its workers.
+     */
+    @Override
+    public int[] predictBatch(Dataset dataset, ForkJoinPool pool) {
+        int[] rows = dataset.getRows();
+        int[] predictions = new int[rows.length];
+        var binding = schema.bind(dataset);
+        if (pool == null || rows.length <= BLOCK_SIZE) {
+            for (int from = 0; from < rows.length; from += BLOCK_SIZE) {
+                predictBlock(binding, rows, predictions, from, Math.min(from + BLOCK_SIZE, rows.length));
+            }
+        } else {
+            var task = new BatchTask(binding, rows, predictions, 0, rows.length);
+            if (ForkJoinTask.getPool() == pool) task.invoke();
+            else pool.invoke(task);
+        }
+        return predictions;
+    }
+
+    @Override
+    public int[] predictBatch(double[] features, int rows) {
+        int width = schema.features.size();
+        int[] predictions = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            int base = r * width;
+            int node = 0;
+            while (true) {
+                int f = feature[node];
+                if (f < 0) {
+                    predictions[r] = label[node];
+                    break;
+                }
+                int next = next(node, features[base + f]);
+                if (next < 0) {
+                    predictions[r] = label[node];
+                    break;
+                }
+                node = next;
+            }
+        }
+        return predictions;
+    }
+
+    private void predictBlock(FeatureSchema.Binding binding, int[] rows, int[] predictions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int node = 0;
+            while (true) {
+                int f = feature[node];
+                if (f < 0) break;
+                int next = next(node, binding.value(f, row));
+                if (next < 0) break;
+                node = next;
+            }
+            predictions[i] = label[node];
+        }
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FeatureSchema.Binding binding;
+        private final int[] rows;
+        private final int[] predictions;
+        private final int from, to;
+
+        BatchTask(FeatureSchema.Binding binding, int[] rows, int[] predictions, int from, int to) {
+            this.binding = binding;
+            this.rows = rows;
+            this.predictions = predictions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCK_SIZE) {
+                predictBlock(binding, rows, predictions, from, to);
+                return;
+            }
+            // split on a block boundary so no two tasks write the same block
+            int blocks = (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int mid = from + blocks / 2 * BLOCK_SIZE;
+            invokeAll(new BatchTask(binding, rows, predictions, from, mid),
+                    new BatchTask(binding, rows, predictions, mid, to));
+        }
+    }
+
+    @Override
+    public double[] encode(Dataset.Line line, double[] out) {
+        return schema.encode(line, out);
+    }
+
+    @Override
+    public double[] encode(String[] values, double[] out, int offset) {
+        return schema.encode(values, out, offset);
+    }
+
+    @Override
+    public List<String> getFeatures() {
+        return schema.features;
+    }
+
+    @Override
+    public List<String> getClasses() {
+        return schema.classes;
+    }
+
+    public int size() {
+        return feature.length;
+    }
+
+    /**
+     * Generates bytecode scoring this tree, see {@link TreeCodegen}: single
+     * rows and packed batches of feature vectors are then scored by code
+     * the JIT compiles, with the thresholds as constants.
+     *
+     * @return the generated model, or this tree when it is too large for a class
+     */
+    public CompiledModel generate() {
+        var predictor = TreeCodegen.generate(this);
+        return predictor == null ? this : new GeneratedTree(this, predictor);
+    }
+}
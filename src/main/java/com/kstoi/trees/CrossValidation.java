@@ -0,0 +1,244 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * k-fold cross-validation. The lines of the dataset are shuffled and dealt
+ * into {@code folds} folds, class by class when {@code stratified} so every
+ * fold keeps the class mix, and every line lands in exactly one fold.
+ *
+ * <p>Folds are views of the dataset ({@link Dataset#subset(int[])}), so every
+ * build shares its columns, and with them the sorted orders and bins cached
+ * on the columns: a column is sorted once however many folds and models are
+ * trained on it. With a {@code pool} set every (model, fold) pair is trained
+ * and scored as a task of its own.
+ */
+@Slf4j
+public class CrossValidation {
+    private final Dataset dataset;
+    private final int folds;
+    @Getter
+    @Setter
+    private boolean stratified = true;
+    @Getter
+    @Setter
+    private long seed;
+    /**
+     * Pool the folds are trained on, null to train them one after the other.
+     */
+    @Getter
+    @Setter
+    private ForkJoinPool pool;
+
+    public CrossValidation(Dataset dataset, int folds) {
+        if (folds < 2) throw new IllegalArgumentException("folds must be at least 2");
+        if (folds > dataset.getData().size()) throw new IllegalArgumentException("more folds than lines");
+        this.dataset = dataset;
+        this.folds = folds;
+    }
+
+    /**
+     * @return the positions in {@link Dataset#getData()} of every fold's lines, ascending
+     */
+    public int[][] folds() {
+        var data = dataset.getData();
+        int[] labels = dataset.getLabels();
+        int classes = stratified ? dataset.getClasses().size() : 1;
+        var random = new SplittableRandom(seed);
+
+        int[][] byClass = new int[classes][];
+        int[] sizes = new int[classes];
+        for (var line : data) sizes[stratified ? labels[line.getRow()] : 0]++;
+        for (int c = 0; c < classes; c++) byClass[c] = new int[sizes[c]];
+        int[] filled = new int[classes];
+        for (int i = 0; i < data.size(); i++) {
+            int c = stratified ? labels[data.get(i).getRow()] : 0;
+            byClass[c][filled[c]++] = i;
+        }
+
+        // deal on from where the previous class stopped, so fold sizes differ by one at most
+        int[] foldSizes = new int[folds];
+        int[] fold = new int[data.size()];
+        int next = 0;
+        for (int[] positions : byClass) {
+            shuffle(positions, random);
+            for (int position : positions) {
+                fold[position] = next;
+                foldSizes[next] += 1;
+                next = next + 1 == folds ? 0 : next + 1;
+            }
+        }
+        int[][] result = new int[folds][];
+        for (int f = 0; f < folds; f++) result[f] = new int[foldSizes[f]];
+        int[] at = new int[folds];
+        for (int i = 0; i < fold.length; i++) result[fold[i]][at[fold[i]]++] = i;
+        return result;
+    }
+
+    private static void shuffle(int[] array, SplittableRandom random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    /**
+     * Cross-validates one model. {@code trainer} builds the model from a
+     * training fold and may be called concurrently.
+     */
+    public Result evaluate(Function<Dataset, ? extends CompiledModel> trainer) {
+        return evaluate(List.of(trainer)).get(0);
+    }
+
+    /**
+     * Cross-validates several models on the same folds.
+     *
+     * @return a result per trainer, in order
+     */
+    public List<Result> evaluate(List<? extends Function<Dataset, ? extends CompiledModel>> trainers) {
+        var split = split();
+        log.info("cross-validating {} models on {} folds", trainers.size(), folds);
+        double[][] accuracy = new double[trainers.size()][folds];
+        if (pool == null) {
+            for (int m = 0; m < trainers.size(); m++) {
+                for (int f = 0; f < folds; f++) accuracy[m][f] = score(trainers.get(m).apply(split[0][f]), split[1][f]);
+            }
+        } else {
+            List<ForkJoinTask<Double>> tasks = new ArrayList<>();
+            for (var trainer : trainers) {
+                for (int f = 0; f < folds; f++) {
+                    int fold = f;
+                    tasks.add(pool.submit(() -> score(trainer.apply(split[0][fold]), split[1][fold])));
+                }
+            }
+            for (int i = 0; i < tasks.size(); i++) accuracy[i / folds][i % folds] = tasks.get(i).join();
+        }
+        return results(accuracy);
+    }
+
+    /**
+     * Cross-validates models trained together, such as pruned variants of one
+     * tree: {@code trainer} returns the same number of models for every
+     * training fold, and is called once per fold.
+     *
+     * @return a result per model, in the order the trainer returns them
+     */
+    public List<Result> evaluateAll(Function<Dataset, ? extends List<? extends CompiledModel>> trainer) {
+        var split = split();
+        double[][] byFold = new double[folds][];
+        if (pool == null) {
+            for (int f = 0; f < folds; f++) byFold[f] = scoreAll(trainer.apply(split[0][f]), split[1][f]);
+        } else {
+            List<ForkJoinTask<double[]>> tasks = new ArrayList<>();
+            for (int f = 0; f < folds; f++) {
+                int fold = f;
+                tasks.add(pool.submit(() -> scoreAll(trainer.apply(split[0][fold]), split[1][fold])));
+            }
+            for (int f = 0; f < folds; f++) byFold[f] = tasks.get(f).join();
+        }
+        double[][] accuracy = new double[byFold[0].length][folds];
+        for (int f = 0; f < folds; f++) {
+            if (byFold[f].length != accuracy.length) throw new IllegalStateException("models differ between folds");
+            for (int m = 0; m < accuracy.length; m++) accuracy[m][f] = byFold[f][m];
+        }
+        return results(accuracy);
+    }
+
+    /**
+     * @return the training folds and the test folds, as views of the dataset
+     */
+    private Dataset[][] split() {
+        int[][] testPositions = folds();
+        var split = new Dataset[2][folds];
+        for (int f = 0; f < folds; f++) {
+            split[0][f] = dataset.subset(complement(testPositions[f], dataset.getData().size()));
+            split[1][f] = dataset.subset(testPositions[f]);
+        }
+        return split;
+    }
+
+    private static List<Result> results(double[][] accuracy) {
+        List<Result> results = new ArrayList<>();
+        for (double[] scores : accuracy) results.add(new Result(scores));
+        return results;
+    }
+
+    private double[] scoreAll(List<? extends CompiledModel> models, Dataset test) {
+        double[] scores = new double[models.size()];
+        for (int m = 0; m < scores.length; m++) scores[m] = score(models.get(m), test);
+        return scores;
+    }
+
+    /**
+     * @return the positions below {@code size} that are not in the ascending {@code positions}
+     */
+    private static int[] complement(int[] positions, int size) {
+        int[] rest = new int[size - positions.length];
+        for (int i = 0, p = 0, r = 0; i < size; i++) {
+            if (p < positions.length && positions[p] == i) p++;
+            else rest[r++] = i;
+        }
+        return rest;
+    }
+
+    /**
+     * @return the share of the test lines the model gets right
+     */
+    private double score(CompiledModel model, Dataset test) {
+        int[] predictions = model.predictBatch(test, null);
+        // the model's class codes in the dataset's dictionary
+        var target = dataset.getColumn(dataset.getTarget());
+        var modelClasses = model.getClasses();
+        int[] code = new int[modelClasses.size()];
+        for (int c = 0; c < code.length; c++) code[c] = target.code(modelClasses.get(c));
+
+        int[] labels = dataset.getLabels();
+        var lines = test.getData();
+        int correct = 0;
+        for (int i = 0; i < predictions.length; i++) {
+            if (code[predictions[i]] == labels[lines.get(i).getRow()]) correct++;
+        }
+        return predictions.length == 0 ? 0d : (double) correct / predictions.length;
+    }
+
+    /**
+     * Accuracy of a model on every fold.
+     */
+    @Getter
+    @ToString
+    public static class Result {
+        private final double[] accuracy;
+
+        Result(double[] accuracy) {
+            this.accuracy = accuracy;
+        }
+
+        public double getMean() {
+            return Arrays.stream(accuracy).average().orElse(0d);
+        }
+
+        /**
+         * @return the sample standard deviation of the fold accuracies
+         */
+        public double getStandardDeviation() {
+            double mean = getMean();
+            double squares = 0d;
+            for (double a : accuracy) squares += (a - mean) * (a - mean);
+            return accuracy.length < 2 ? 0d : Math.sqrt(squares / (accuracy.length - 1));
+        }
+    }
+}
@@ -5,5 +5,17 @@ import com.kstoi.utils.Dataset;
 public interface DecTree<Node> {
     Node build();
     String predict(Node root, Dataset.Line instance);
+
+    /**
+     * Predicts every line of a dataset, in the order of {@link Dataset#getData()}.
+     */
+    default String[] predictBatch(Node root, Dataset dataset) {
+        var data = dataset.getData();
+        var predictions = new String[data.size()];
+        for (int i = 0; i < predictions.length; i++) {
+            predictions[i] = predict(root, data.get(i));
+        }
+        return predictions;
+    }
     String toString();
 }
@@ -0,0 +1,173 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Column;
+import com.kstoi.utils.Dataset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The features and classes a model was trained on. Numeric features are
+ * scored by value, nominal ones by their code in the training dictionary,
+ * -1 for a value the model has never seen.
+ */
+final class FeatureSchema {
+    final List<String> features;
+    final boolean[] numeric;
+    final Map<String, Integer>[] dictionaries;
+    final List<String> classes;
+
+    FeatureSchema(List<String> features, boolean[] numeric, Map<String, Integer>[] dictionaries, List<String> classes) {
+        this.features = features;
+        this.numeric = numeric;
+        this.dictionaries = dictionaries;
+        this.classes = classes;
+    }
+
+    /**
+     * @return an array for the dictionaries of {@code width} features
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Integer>[] newDictionaries(int width) {
+        return (Map<String, Integer>[]) new Map<?, ?>[width];
+    }
+
+    /**
+     * The schema of a dataset: every attribute but the target is a feature.
+     */
+    static FeatureSchema of(Dataset dataset) {
+        var attributes = dataset.getAttributes();
+        var features = List.copyOf(attributes.subList(0, attributes.size() - 1));
+        boolean[] numeric = new boolean[features.size()];
+        Map<String, Integer>[] dictionaries = newDictionaries(features.size());
+        for (int f = 0; f < features.size(); f++) {
+            var column = dataset.getColumn(features.get(f));
+            numeric[f] = column.isNumeric();
+            dictionaries[f] = new HashMap<>();
+            if (!column.isNumeric()) {
+                var dictionary = column.getDictionary();
+                for (int code = 0; code < dictionary.size(); code++) {
+                    dictionaries[f].put(dictionary.get(code), code);
+                }
+            }
+        }
+        return new FeatureSchema(features, numeric, dictionaries, List.copyOf(dataset.getClasses()));
+    }
+
+    /**
+     * This schema with classes and nominal values it does not have yet, each
+     * coded after the existing ones; the existing codes stay.
+     *
+     * @param values new values by feature, for nominal features only
+     */
+    FeatureSchema extend(Collection<String> classes, Map<String, ? extends Collection<String>> values) {
+        List<String> allClasses = new ArrayList<>(this.classes);
+        for (var label : classes) {
+            if (!allClasses.contains(label)) allClasses.add(label);
+        }
+        Map<String, Integer>[] extended = newDictionaries(features.size());
+        for (int f = 0; f < extended.length; f++) {
+            extended[f] = new HashMap<>(dictionaries[f]);
+            var added = values.get(features.get(f));
+            if (added == null) continue;
+            if (numeric[f]) throw new IllegalArgumentException(features.get(f) + " is numeric");
+            for (var value : added) extended[f].putIfAbsent(value, extended[f].size());
+        }
+        return new FeatureSchema(features, numeric, extended, List.copyOf(allClasses));
+    }
+
+    /**
+     * Writes the feature vector of a row into {@code out} and returns it.
+     */
+    double[] encode(Dataset.Line line, double[] out) {
+        for (int f = 0; f < numeric.length; f++) {
+            if (numeric[f]) {
+                out[f] = line.getDouble(features.get(f));
+            } else {
+                out[f] = dictionaries[f].getOrDefault(line.get(features.get(f)), -1);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Writes the feature vector of raw attribute values, in feature order,
+     * into {@code out} from {@code offset}, {@value Dataset#MISSING} read as
+     * a missing value the way the readers store it.
+     */
+    double[] encode(String[] values, double[] out, int offset) {
+        if (values.length != numeric.length) {
+            throw new IllegalArgumentException(values.length + " values for " + numeric.length + " features");
+        }
+        for (int f = 0; f < numeric.length; f++) {
+            String value = values[f].equals(Dataset.MISSING) ? Dataset.MISSING_VALUE : values[f];
+            if (numeric[f]) {
+                out[offset + f] = Double.parseDouble(value);
+            } else {
+                out[offset + f] = dictionaries[f].getOrDefault(value, -1);
+            }
+        }
+        return out;
+    }
+
+    Binding bind(Dataset dataset) {
+        return new Binding(dataset);
+    }
+
+    /**
+     * The columns of a dataset translated to the features. Numeric columns
+     * are read directly, nominal codes go through a table from the dataset's
+     * dictionary to the model's.
+     */
+    final class Binding {
+        private final double[][] values;
+        private final int[][] codes;
+        private final int[][] remap;
+        private final double[][] parsed;
+
+        private Binding(Dataset dataset) {
+            int width = features.size();
+            values = new double[width][];
+            codes = new int[width][];
+            remap = new int[width][];
+            parsed = new double[width][];
+            for (int f = 0; f < width; f++) {
+                Column column = dataset.getColumn(features.get(f));
+                if (column == null) {
+                    throw new IllegalArgumentException("Dataset has no attribute " + features.get(f));
+                }
+                var dictionary = column.getDictionary();
+                if (numeric[f] && column.isNumeric()) {
+                    values[f] = column.getValues();
+                } else if (numeric[f]) {
+                    codes[f] = column.getCodes();
+                    parsed[f] = new double[dictionary.size()];
+                    for (int code = 0; code < dictionary.size(); code++) {
+                        parsed[f][code] = Double.parseDouble(dictionary.get(code));
+                    }
+                } else if (!column.isNumeric()) {
+                    codes[f] = column.getCodes();
+                    remap[f] = new int[dictionary.size()];
+                    for (int code = 0; code < dictionary.size(); code++) {
+                        remap[f][code] = dictionaries[f].getOrDefault(dictionary.get(code), -1);
+                    }
+                } else {
+                    codes[f] = new int[column.getSize()];
+                    for (int row = 0; row < codes[f].length; row++) {
+                        codes[f][row] = dictionaries[f].getOrDefault(column.getString(row), -1);
+                    }
+                }
+            }
+        }
+
+        double value(int f, int row) {
+            if (values[f] != null) return values[f][row];
+            int code = codes[f][row];
+            if (parsed[f] != null) return parsed[f][code];
+            return remap[f] == null ? code : remap[f][code];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link CompiledTree} scoring feature vectors with code generated for
+ * it, see {@link CompiledTree#generate()}. Whole datasets are scored, and
+ * the model is saved, through the tree it was generated from.
+ */
+final class GeneratedTree implements CompiledModel {
+    final CompiledTree tree;
+    private final Predictor predictor;
+    private final int width;
+
+    GeneratedTree(CompiledTree tree, Predictor predictor) {
+        this.tree = tree;
+        this.predictor = predictor;
+        this.width = tree.getFeatures().size();
+    }
+
+    /**
+     * Implemented by the generated class.
+     */
+    interface Predictor {
+        /**
+         * @return the class code predicted for the feature vector starting at {@code offset}
+         */
+        int predict(double[] features, int offset);
+    }
+
+    @Override
+    public int predict(double[] features) {
+        return predictor.predict(features, 0);
+    }
+
+    @Override
+    public int[] predictBatch(double[] features, int rows) {
+        int[] predictions = new int[rows];
+        for (int r = 0; r < rows; r++) predictions[r] = predictor.predict(features, r * width);
+        return predictions;
+    }
+
+    @Override
+    public int[] predictBatch(Dataset dataset, ForkJoinPool pool) {
+        return tree.predictBatch(dataset, pool);
+    }
+
+    @Override
+    public double[] encode(Dataset.Line line, double[] out) {
+        return tree.encode(line, out);
+    }
+
+    @Override
+    public double[] encode(String[] values, double[] out, int offset) {
+        return tree.encode(values, out, offset);
+    }
+
+    @Override
+    public List<String> getFeatures() {
+        return tree.getFeatures();
+    }
+
+    @Override
+    public List<String> getClasses() {
+        return tree.getClasses();
+    }
+}
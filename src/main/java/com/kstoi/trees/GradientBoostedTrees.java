@@ -0,0 +1,481 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Column;
+import com.kstoi.utils.Dataset;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Gradient boosted regression trees for a two class target, each round
+ * fitting a tree of depth at most {@code maxDepth} to the gradients of the
+ * log loss. The second class of the target's dictionary is the positive one.
+ *
+ * <p>Numeric attributes are quantized into {@code bins} bins as the histogram
+ * mode of {@link AbstractDecisionTree} does, nominal ones use their codes as
+ * ordered bins. Splits are searched over per node gradient and hessian
+ * histograms; only the smaller child of a split is scanned, the larger one
+ * gets the parent's histogram minus its sibling's. {@code maxDepth},
+ * {@code minSamplesSplit} and {@code minGain} stop a node as they do in
+ * {@link PrunedDecisionTree}, with the gain being the loss reduction.
+ *
+ * <p>Every round can be fitted on a {@code subsample} of the rows and a
+ * {@code featureFraction} of the attributes. With {@code validationFraction > 0}
+ * that share of the rows is held out and training stops once the holdout log
+ * loss has not improved for {@code earlyStoppingRounds} rounds, keeping the
+ * rounds up to the best one. With a {@code pool} set the histograms of a node
+ * are accumulated concurrently, one task per attribute range.
+ */
+@Slf4j
+public class GradientBoostedTrees implements DecTree<GradientBoostedTrees.Ensemble> {
+    private final Dataset dataset;
+    private final int rounds;
+    @Getter
+    @Setter
+    private double learningRate = 0.1;
+    @Getter
+    @Setter
+    private int maxDepth = 3;
+    @Getter
+    @Setter
+    private int minSamplesSplit = 2;
+    @Getter
+    @Setter
+    private double minGain;
+    /**
+     * L2 penalty on the leaf values.
+     */
+    @Getter
+    @Setter
+    private double lambda = 1;
+    @Getter
+    @Setter
+    private int bins = 255;
+    @Getter
+    @Setter
+    private double subsample = 1;
+    @Getter
+    @Setter
+    private double featureFraction = 1;
+    @Getter
+    @Setter
+    private double validationFraction;
+    @Getter
+    @Setter
+    private int earlyStoppingRounds = 10;
+    @Getter
+    @Setter
+    private long seed;
+    @Getter
+    @Setter
+    private ForkJoinPool pool;
+
+    public GradientBoostedTrees(Dataset dataset, int rounds) {
+        this.dataset = dataset;
+        this.rounds = rounds;
+    }
+
+    @Override
+    public String toString() {
+        return "GradientBoostedTrees{" +
+                "rounds=" + rounds +
+                ", learningRate=" + learningRate +
+                ", maxDepth=" + maxDepth +
+                ", minSamplesSplit=" + minSamplesSplit +
+                ", minGain=" + minGain +
+                '}';
+    }
+
+    @Override
+    public Ensemble build() {
+        var target = dataset.getColumn(dataset.getTarget());
+        if (target.cardinality() != 2) {
+            throw new IllegalStateException("Boosting needs two classes, " + dataset.getTarget() + " has " + target.cardinality());
+        }
+        return new Fit().run();
+    }
+
+    /**
+     * The state of one training run. Rows are addressed by their position in
+     * {@link Dataset#getData()}, every attribute by its bin codes gathered in
+     * that order.
+     */
+    private class Fit {
+        private final FeatureSchema schema = FeatureSchema.of(dataset);
+        private final int width = schema.features.size();
+        private final short[][] codes = new short[width][];
+        private final double[][] thresholds = new double[width][];
+        private final int[] offset = new int[width + 1];
+        private final int size = dataset.getData().size();
+        private final byte[] labels = new byte[size];
+        private final double[] margins = new double[size];
+        private final double[] gradients = new double[size];
+        private final double[] hessians = new double[size];
+        private final int[] scratch = new int[size];
+        private final SplittableRandom random = new SplittableRandom(seed);
+        private boolean[] active;
+
+        Fit() {
+            int[] rows = dataset.getRows();
+            int[] targets = dataset.getLabels();
+            for (int i = 0; i < size; i++) labels[i] = (byte) targets[rows[i]];
+            for (int f = 0; f < width; f++) {
+                Column column = dataset.getColumn(schema.features.get(f));
+                codes[f] = new short[size];
+                int count;
+                if (column.isNumeric()) {
+                    var quantized = column.quantize(bins);
+                    for (int i = 0; i < size; i++) codes[f][i] = quantized.getCodes()[rows[i]];
+                    count = quantized.count();
+                    thresholds[f] = new double[count];
+                    for (int b = 0; b + 1 < count; b++) {
+                        thresholds[f][b] = (quantized.getUpper()[b] + quantized.getLower()[b + 1]) / 2.0;
+                    }
+                } else if (column.cardinality() <= Short.MAX_VALUE) {
+                    for (int i = 0; i < size; i++) codes[f][i] = (short) column.getCode(rows[i]);
+                    count = column.cardinality();
+                    thresholds[f] = new double[count];
+                    for (int b = 0; b < count; b++) thresholds[f][b] = b + 0.5;
+                } else {
+                    log.warn("{} has {} values and is left out", column.getName(), column.cardinality());
+                    count = 0;
+                }
+                offset[f + 1] = offset[f] + count;
+            }
+        }
+
+        Ensemble run() {
+            int[] positions = new int[size];
+            for (int i = 0; i < size; i++) positions[i] = i;
+            shuffle(positions, size);
+            int holdoutSize = (int) (size * validationFraction);
+            int[] holdout = Arrays.copyOfRange(positions, 0, holdoutSize);
+            int[] train = Arrays.copyOfRange(positions, holdoutSize, size);
+            Arrays.sort(holdout);
+            Arrays.sort(train);
+
+            int positives = 0;
+            for (int i : train) positives += labels[i];
+            double rate = Math.min(1 - 1e-6, Math.max(1e-6, (double) positives / Math.max(1, train.length)));
+            var ensemble = new Ensemble(Math.log(rate / (1 - rate)));
+            Arrays.fill(margins, ensemble.baseScore);
+
+            double bestLoss = Double.POSITIVE_INFINITY;
+            int bestRounds = 0;
+            log.info("Boosting {} rounds on {} rows, {} held out", rounds, train.length, holdout.length);
+            for (int round = 0; round < rounds; round++) {
+                for (int i : train) {
+                    double p = sigmoid(margins[i]);
+                    gradients[i] = p - labels[i];
+                    hessians[i] = Math.max(p * (1 - p), 1e-16);
+                }
+                int[] sample = sample(train);
+                active = features();
+                var root = grow(sample, 0, sample.length, histogram(sample, 0, sample.length), 0);
+                ensemble.trees.add(root);
+                for (int i : train) margins[i] += value(root, i);
+                for (int i : holdout) margins[i] += value(root, i);
+
+                if (holdout.length == 0) continue;
+                double loss = logLoss(holdout);
+                log.debug("round {} holdout log loss {}", round, loss);
+                if (loss < bestLoss) {
+                    bestLoss = loss;
+                    bestRounds = round + 1;
+                } else if (round + 1 - bestRounds >= earlyStoppingRounds) {
+                    log.info("Stopping after round {}, the best holdout log loss {} was at round {}", round + 1, bestLoss, bestRounds);
+                    break;
+                }
+            }
+            if (holdout.length > 0) ensemble.trees.subList(bestRounds, ensemble.trees.size()).clear();
+            log.info("Built {} trees", ensemble.trees.size());
+            return ensemble;
+        }
+
+        private Node grow(int[] rows, int from, int to, Histogram histogram, int depth) {
+            double gradient = 0, hessian = 0;
+            for (int i = from; i < to; i++) {
+                gradient += gradients[rows[i]];
+                hessian += hessians[rows[i]];
+            }
+            var node = new Node();
+            node.value = -gradient / (hessian + lambda) * learningRate;
+            node.label = Double.toString(node.value);
+            node.isLeaf = true;
+            if (depth >= maxDepth || to - from < minSamplesSplit) return node;
+
+            double parentScore = gradient * gradient / (hessian + lambda);
+            double bestGain = 0;
+            int bestFeature = -1, bestBin = -1;
+            for (int f = 0; f < width; f++) {
+                if (!active[f]) continue;
+                double leftGradient = 0, leftHessian = 0;
+                int leftCount = 0;
+                for (int b = offset[f]; b + 1 < offset[f + 1]; b++) {
+                    leftGradient += histogram.gradients[b];
+                    leftHessian += histogram.hessians[b];
+                    leftCount += histogram.counts[b];
+                    if (leftCount == 0) continue;
+                    if (leftCount == to - from) break;
+                    double rightGradient = gradient - leftGradient, rightHessian = hessian - leftHessian;
+                    double gain = 0.5 * (leftGradient * leftGradient / (leftHessian + lambda)
+                            + rightGradient * rightGradient / (rightHessian + lambda) - parentScore);
+                    if (gain > bestGain) {
+                        bestGain = gain;
+                        bestFeature = f;
+                        bestBin = b - offset[f];
+                    }
+                }
+            }
+            if (bestFeature < 0 || bestGain < minGain) return node;
+
+            node.isLeaf = false;
+            node.feature = bestFeature;
+            node.bin = bestBin;
+            node.attribute = schema.features.get(bestFeature);
+            node.threshold = thresholds[bestFeature][bestBin];
+
+            int mid = partition(rows, from, to, codes[bestFeature], bestBin);
+            Histogram left, right;
+            if (mid - from <= to - mid) {
+                left = histogram(rows, from, mid);
+                right = histogram.subtract(left);
+            } else {
+                right = histogram(rows, mid, to);
+                left = histogram.subtract(right);
+            }
+            node.left = grow(rows, from, mid, left, depth + 1);
+            node.right = grow(rows, mid, to, right, depth + 1);
+            return node;
+        }
+
+        /**
+         * Moves the rows whose bin is at most {@code bin} to the front of the
+         * range, keeping both parts in order.
+         *
+         * @return the end of the front part
+         */
+        private int partition(int[] rows, int from, int to, short[] codes, int bin) {
+            int left = from, right = 0;
+            for (int i = from; i < to; i++) {
+                if (codes[rows[i]] <= bin) rows[left++] = rows[i];
+                else scratch[right++] = rows[i];
+            }
+            System.arraycopy(scratch, 0, rows, left, right);
+            return left;
+        }
+
+        private Histogram histogram(int[] rows, int from, int to) {
+            var histogram = new Histogram(offset[width]);
+            var task = new HistogramTask(histogram, rows, from, to, 0, width);
+            if (pool == null || width < 2) task.compute();
+            else if (ForkJoinTask.getPool() == pool) task.invoke();
+            else pool.invoke(task);
+            return histogram;
+        }
+
+        private class HistogramTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Histogram histogram;
+            private final int[] rows;
+            private final int from, to;
+            private final int firstFeature, lastFeature;
+
+            HistogramTask(Histogram histogram, int[] rows, int from, int to, int firstFeature, int lastFeature) {
+                this.histogram = histogram;
+                this.rows = rows;
+                this.from = from;
+                this.to = to;
+                this.firstFeature = firstFeature;
+                this.lastFeature = lastFeature;
+            }
+
+            @Override
+            protected void compute() {
+                if (pool != null && lastFeature - firstFeature > 1) {
+                    int mid = (firstFeature + lastFeature) >>> 1;
+                    invokeAll(new HistogramTask(histogram, rows, from, to, firstFeature, mid),
+                            new HistogramTask(histogram, rows, from, to, mid, lastFeature));
+                    return;
+                }
+                for (int f = firstFeature; f < lastFeature; f++) {
+                    if (!active[f]) continue;
+                    short[] featureCodes = codes[f];
+                    int base = offset[f];
+                    for (int i = from; i < to; i++) {
+                        int row = rows[i];
+                        int b = base + featureCodes[row];
+                        histogram.gradients[b] += gradients[row];
+                        histogram.hessians[b] += hessians[row];
+                        histogram.counts[b]++;
+                    }
+                }
+            }
+        }
+
+        private double value(Node node, int row) {
+            while (!node.isLeaf) {
+                node = codes[node.feature][row] <= node.bin ? node.left : node.right;
+            }
+            return node.value;
+        }
+
+        private int[] sample(int[] train) {
+            if (subsample >= 1) return train.clone();
+            int count = Math.max(1, (int) (train.length * subsample));
+            int[] sample = train.clone();
+            shuffle(sample, count);
+            sample = Arrays.copyOf(sample, count);
+            Arrays.sort(sample);
+            return sample;
+        }
+
+        private boolean[] features() {
+            var picked = new boolean[width];
+            if (featureFraction >= 1) {
+                Arrays.fill(picked, true);
+                return picked;
+            }
+            int[] order = new int[width];
+            for (int f = 0; f < width; f++) order[f] = f;
+            int count = Math.max(1, (int) Math.round(width * featureFraction));
+            shuffle(order, count);
+            for (int i = 0; i < count; i++) picked[order[i]] = true;
+            return picked;
+        }
+
+        /**
+         * Moves {@code count} random entries to the front of {@code values}.
+         */
+        private void shuffle(int[] values, int count) {
+            for (int i = 0; i < Math.min(count, values.length - 1); i++) {
+                int j = i + random.nextInt(values.length - i);
+                int swap = values[i];
+                values[i] = values[j];
+                values[j] = swap;
+            }
+        }
+
+        private double logLoss(int[] rows) {
+            double loss = 0;
+            for (int i : rows) {
+                double p = Math.min(1 - 1e-15, Math.max(1e-15, sigmoid(margins[i])));
+                loss -= labels[i] == 1 ? Math.log(p) : Math.log(1 - p);
+            }
+            return loss / rows.length;
+        }
+    }
+
+    /**
+     * Per bin sums of the gradients, hessians and rows of a node, the bins of
+     * attribute {@code f} starting at its offset.
+     */
+    private static class Histogram {
+        private final double[] gradients;
+        private final double[] hessians;
+        private final int[] counts;
+
+        Histogram(int bins) {
+            gradients = new double[bins];
+            hessians = new double[bins];
+            counts = new int[bins];
+        }
+
+        /**
+         * Subtracts a child's histogram in place, leaving its sibling's.
+         */
+        Histogram subtract(Histogram child) {
+            for (int b = 0; b < counts.length; b++) {
+                gradients[b] -= child.gradients[b];
+                hessians[b] -= child.hessians[b];
+                counts[b] -= child.counts[b];
+            }
+            return this;
+        }
+    }
+
+    static double sigmoid(double margin) {
+        return 1 / (1 + Math.exp(-margin));
+    }
+
+    /**
+     * @return the positive class when the summed margin is above 0
+     */
+    @Override
+    public String predict(Ensemble ensemble, Dataset.Line instance) {
+        double margin = ensemble.baseScore;
+        for (var root : ensemble.trees) {
+            var node = root;
+            while (!node.isLeaf) {
+                double value = dataset.isNumeric(node.attribute)
+                        ? instance.getDouble(node.attribute)
+                        : dataset.getColumn(node.attribute).code(instance.get(node.attribute));
+                node = value <= node.threshold ? node.left : node.right;
+            }
+            margin += node.value;
+        }
+        return dataset.getClasses().get(margin > 0 ? 1 : 0);
+    }
+
+    public CompiledBoostedTrees compile(Ensemble ensemble) {
+        return CompiledBoostedTrees.compile(ensemble, FeatureSchema.of(dataset));
+    }
+
+    @Override
+    public String[] predictBatch(Ensemble ensemble, Dataset dataset) {
+        return compile(ensemble).predictBatchLabels(dataset, pool);
+    }
+
+    /**
+     * The trees of a boosted model and the margin they start from. Drawing
+     * an ensemble draws its first tree.
+     */
+    public static class Ensemble implements TreeNode {
+        final double baseScore;
+        final List<Node> trees = new ArrayList<>();
+
+        Ensemble(double baseScore) {
+            this.baseScore = baseScore;
+        }
+
+        public List<Node> getTrees() {
+            return trees;
+        }
+
+        @Override
+        public void forEach(Consumer<Map<String, Object>> consumer, int x, int y, int dx, int dy) {
+            if (!trees.isEmpty()) trees.get(0).forEach(consumer, x, y, dx, dy);
+        }
+
+        @Override
+        public String toString() {
+            return "Ensemble{trees=" + trees.size() + ", baseScore=" + baseScore + '}';
+        }
+    }
+
+    /**
+     * A regression node: a split on bin {@code bin} of feature {@code feature}
+     * or a leaf adding {@code value} to the margin.
+     */
+    public static class Node extends AbstractNode<Node> {
+        int feature;
+        int bin;
+        double value;
+
+        @Override
+        public String toString() {
+            return isLeaf ? "Leaf{" + value + '}' : "Split{" + attribute + " <= " + threshold + '}';
+        }
+    }
+}
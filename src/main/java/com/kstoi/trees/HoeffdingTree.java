@@ -0,0 +1,395 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import com.kstoi.utils.TreeMath;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * A decision tree learnt from a stream of lines (a Hoeffding tree). Each line
+ * is routed to its leaf and only updates that leaf's statistics; every
+ * {@code gracePeriod} lines a leaf checks whether the information gain of its
+ * best attribute beats the second best by more than the Hoeffding bound
+ * {@code sqrt(R² ln(1/delta) / 2n)}, or the bound fell below
+ * {@code tieThreshold}, and if so splits.
+ *
+ * <p>A leaf keeps per class counts, per class counts of at most
+ * {@code maxNominalValues} values of every nominal attribute and a per class
+ * Gaussian (count, mean, variance, range) of every numeric one, so its memory
+ * does not grow with the stream. Numeric thresholds are chosen among
+ * {@code numericCandidates} points evenly spread over the observed range.
+ * As in the batch trees a nominal attribute is split on at most once per path.
+ *
+ * <p>{@link #build()} streams the lines of the dataset given at construction,
+ * which also defines the attributes and the target; {@link #update(Dataset.Line)}
+ * keeps learning from lines of any dataset with the same attributes.
+ * Updates and predictions must not run concurrently.
+ */
+@Slf4j
+public class HoeffdingTree implements DecTree<HoeffdingTree.Node> {
+    private final Dataset dataset;
+    private final String target;
+    private final Map<String, Boolean> isNumeric = new HashMap<>();
+    private final List<String> classes = new ArrayList<>();
+    private final Map<String, Integer> classIndex = new HashMap<>();
+    @Getter
+    private final Node root;
+    @Getter
+    @Setter
+    private int gracePeriod = 200;
+    @Getter
+    @Setter
+    private double delta = 1e-7;
+    @Getter
+    @Setter
+    private double tieThreshold = 0.05;
+    @Getter
+    @Setter
+    private int maxNominalValues = 64;
+    @Getter
+    @Setter
+    private int numericCandidates = 10;
+    @Getter
+    private long seen;
+
+    public HoeffdingTree(Dataset dataset) {
+        this.dataset = dataset;
+        var attributes = new ArrayList<>(dataset.getAttributes());
+        target = attributes.remove(attributes.size() - 1);
+        for (var attribute : attributes) isNumeric.put(attribute, dataset.isNumeric(attribute));
+        root = newLeaf(attributes, 0, null);
+    }
+
+    @Override
+    public String toString() {
+        return "HoeffdingTree{" +
+                "gracePeriod=" + gracePeriod +
+                ", delta=" + delta +
+                ", tieThreshold=" + tieThreshold +
+                '}';
+    }
+
+    /**
+     * Streams every line of the dataset into the tree.
+     */
+    @Override
+    public Node build() {
+        log.info("Streaming {} lines", dataset.getData().size());
+        for (var line : dataset.getData()) update(line);
+        return root;
+    }
+
+    /**
+     * Learns from one labelled line.
+     */
+    public void update(Dataset.Line line) {
+        seen++;
+        var leaf = root;
+        while (!leaf.isLeaf) {
+            var next = child(leaf, line, true);
+            if (next == null) break;
+            leaf = next;
+        }
+        int label = classIndex(line.get(target));
+        var stats = leaf.stats;
+        stats.add(line, label);
+        leaf.label = classes.get(argmax(stats.classCounts));
+        if (stats.total - stats.lastCheck >= gracePeriod) {
+            stats.lastCheck = stats.total;
+            attemptSplit(leaf);
+        }
+    }
+
+    /**
+     * @return the child a line goes to; on updates, a nominal value the node
+     * has not seen yet gets a new leaf
+     */
+    private Node child(Node node, Dataset.Line line, boolean grow) {
+        if (node.threshold != null) {
+            return line.getDouble(node.attribute) <= node.threshold ? node.left : node.right;
+        }
+        var value = line.get(node.attribute);
+        var child = node.children.get(value);
+        if (child == null && grow) {
+            child = newLeaf(node.candidates, node.depth + 1, node.label);
+            node.children.put(value, child);
+        }
+        return child;
+    }
+
+    private Node newLeaf(List<String> candidates, int depth, String label) {
+        var node = new Node();
+        node.isLeaf = true;
+        node.candidates = candidates;
+        node.depth = depth;
+        node.label = label;
+        node.stats = new LeafStats(candidates);
+        return node;
+    }
+
+    private int classIndex(String label) {
+        var index = classIndex.get(label);
+        if (index == null) {
+            index = classes.size();
+            classes.add(label);
+            classIndex.put(label, index);
+        }
+        return index;
+    }
+
+    private void attemptSplit(Node leaf) {
+        var stats = leaf.stats;
+        if (stats.distinctClasses() < 2) return;
+        double baseEntropy = TreeMath.entropy(stats.classCounts, stats.total);
+        double best = 0, second = 0;
+        String bestAttribute = null;
+        double bestThreshold = 0;
+        for (var attribute : leaf.candidates) {
+            double gain, threshold = 0;
+            if (isNumeric.get(attribute)) {
+                double[] split = stats.numeric.get(attribute).bestSplit(baseEntropy, stats.total);
+                gain = split[0];
+                threshold = split[1];
+            } else {
+                gain = baseEntropy - stats.nominal.get(attribute).entropy(stats.total);
+            }
+            if (gain > best) {
+                second = best;
+                best = gain;
+                bestAttribute = attribute;
+                bestThreshold = threshold;
+            } else if (gain > second) {
+                second = gain;
+            }
+        }
+        if (bestAttribute == null) return;
+
+        double range = Math.log(Math.max(2, classes.size())) / Math.log(2);
+        double bound = Math.sqrt(range * range * Math.log(1 / delta) / (2 * stats.total));
+        if (best - second <= bound && bound >= tieThreshold) return;
+
+        log.debug("Splitting a leaf of {} lines at depth {} on {}, gain {} vs {} bound {}",
+                (long) stats.total, leaf.depth, bestAttribute, best, second, bound);
+        leaf.attribute = bestAttribute;
+        if (isNumeric.get(bestAttribute)) {
+            leaf.threshold = bestThreshold;
+            leaf.left = newLeaf(leaf.candidates, leaf.depth + 1, leaf.label);
+            leaf.right = newLeaf(leaf.candidates, leaf.depth + 1, leaf.label);
+        } else {
+            var candidates = new ArrayList<>(leaf.candidates);
+            candidates.remove(bestAttribute);
+            leaf.candidates = candidates;
+            stats.nominal.get(bestAttribute).counts.forEach((value, counts) ->
+                    leaf.children.put(value, newLeaf(candidates, leaf.depth + 1, classes.get(argmax(counts)))));
+        }
+        leaf.isLeaf = false;
+        leaf.stats = null;
+    }
+
+    private static int argmax(double[] counts) {
+        int best = 0;
+        for (int c = 1; c < counts.length; c++) {
+            if (counts[c] > counts[best]) best = c;
+        }
+        return best;
+    }
+
+    /**
+     * Sufficient statistics of a leaf.
+     */
+    private class LeafStats {
+        private double[] classCounts = new double[Math.max(2, classes.size())];
+        private double total;
+        private double lastCheck;
+        private final Map<String, NominalStats> nominal = new HashMap<>();
+        private final Map<String, GaussianStats> numeric = new HashMap<>();
+
+        LeafStats(List<String> candidates) {
+            for (var attribute : candidates) {
+                if (isNumeric.get(attribute)) numeric.put(attribute, new GaussianStats());
+                else nominal.put(attribute, new NominalStats());
+            }
+        }
+
+        void add(Dataset.Line line, int label) {
+            if (label >= classCounts.length) classCounts = Arrays.copyOf(classCounts, classes.size());
+            classCounts[label]++;
+            total++;
+            nominal.forEach((attribute, stats) -> stats.add(line.get(attribute), label));
+            numeric.forEach((attribute, stats) -> stats.add(line.getDouble(attribute), label));
+        }
+
+        int distinctClasses() {
+            int distinct = 0;
+            for (double count : classCounts) {
+                if (count > 0) distinct++;
+            }
+            return distinct;
+        }
+    }
+
+    /**
+     * Per class counts of the first {@link #maxNominalValues} values of a nominal attribute.
+     */
+    private class NominalStats {
+        private final Map<String, double[]> counts = new HashMap<>();
+
+        void add(String value, int label) {
+            var byClass = counts.get(value);
+            if (byClass == null) {
+                if (counts.size() >= maxNominalValues) return;
+                byClass = new double[classes.size()];
+                counts.put(value, byClass);
+            } else if (label >= byClass.length) {
+                byClass = Arrays.copyOf(byClass, classes.size());
+                counts.put(value, byClass);
+            }
+            byClass[label]++;
+        }
+
+        /**
+         * @return the entropy after splitting on the attribute, lines of the
+         * values beyond the limit counted as a value of their own
+         */
+        double entropy(double total) {
+            double entropy = 0, counted = 0;
+            for (var byClass : counts.values()) {
+                double size = 0;
+                for (double count : byClass) size += count;
+                counted += size;
+                entropy += size * TreeMath.entropy(byClass, size);
+            }
+            // the untracked rest has unknown classes, assume the worst
+            double rest = total - counted;
+            if (rest > 0) entropy += rest * Math.log(Math.max(2, classes.size())) / Math.log(2);
+            return entropy / total;
+        }
+    }
+
+    /**
+     * Per class count, mean, variance and range of a numeric attribute.
+     */
+    private class GaussianStats {
+        private double[] count = new double[0];
+        private double[] mean = new double[0];
+        private double[] m2 = new double[0];
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value, int label) {
+            if (label >= count.length) {
+                count = Arrays.copyOf(count, classes.size());
+                mean = Arrays.copyOf(mean, classes.size());
+                m2 = Arrays.copyOf(m2, classes.size());
+            }
+            double n = ++count[label];
+            double difference = value - mean[label];
+            mean[label] += difference / n;
+            m2[label] += difference * (value - mean[label]);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * @return {gain, threshold} of the best of the candidate thresholds,
+         * with the class counts on either side estimated from the Gaussians
+         */
+        double[] bestSplit(double baseEntropy, double total) {
+            double bestGain = 0, bestThreshold = 0;
+            if (!(max > min)) return new double[]{0, 0};
+            double[] left = new double[count.length];
+            double[] right = new double[count.length];
+            for (int i = 1; i <= numericCandidates; i++) {
+                double threshold = min + (max - min) * i / (numericCandidates + 1);
+                double leftTotal = 0;
+                for (int c = 0; c < count.length; c++) {
+                    left[c] = count[c] * below(c, threshold);
+                    right[c] = count[c] - left[c];
+                    leftTotal += left[c];
+                }
+                double rightTotal = total - leftTotal;
+                double entropy = (leftTotal * TreeMath.entropy(left, leftTotal)
+                        + rightTotal * TreeMath.entropy(right, rightTotal)) / total;
+                double gain = baseEntropy - entropy;
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    bestThreshold = threshold;
+                }
+            }
+            return new double[]{bestGain, bestThreshold};
+        }
+
+        /**
+         * @return the estimated share of class {@code c} at or below {@code threshold}
+         */
+        private double below(int c, double threshold) {
+            if (count[c] == 0) return 0;
+            double sd = count[c] > 1 ? Math.sqrt(m2[c] / (count[c] - 1)) : 0;
+            if (sd == 0) return threshold >= mean[c] ? 1 : 0;
+            return normalCdf((threshold - mean[c]) / sd);
+        }
+    }
+
+    /**
+     * Standard normal distribution function, from the Abramowitz and Stegun
+     * approximation of erf (error below 1.5e-7).
+     */
+    private static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    @Override
+    public String predict(Node root, Dataset.Line instance) {
+        var node = root;
+        while (!node.isLeaf) {
+            var next = child(node, instance, false);
+            if (next == null) break;
+            node = next;
+        }
+        return node.label;
+    }
+
+    /**
+     * Flattens the tree for fast scoring, see {@link CompiledTree}. Classes
+     * and nominal values first seen in the stream, which the dataset given at
+     * construction does not have, are coded after the dataset's.
+     */
+    public CompiledTree compile(Node root) {
+        Map<String, Set<String>> values = new HashMap<>();
+        collectValues(root, values);
+        return CompiledTree.compile(root, FeatureSchema.of(dataset).extend(classes, values));
+    }
+
+    private static void collectValues(Node node, Map<String, Set<String>> values) {
+        if (node.isLeaf) return;
+        if (node.threshold != null) {
+            collectValues(node.left, values);
+            collectValues(node.right, values);
+            return;
+        }
+        values.computeIfAbsent(node.attribute, attribute -> new LinkedHashSet<>()).addAll(node.children.keySet());
+        for (var child : node.children.values()) collectValues(child, values);
+    }
+
+    /**
+     * A node of a Hoeffding tree. Leaves carry the statistics they learn from,
+     * split nodes drop them.
+     */
+    public static class Node extends AbstractNode<Node> {
+        List<String> candidates;
+        int depth;
+        LeafStats stats;
+
+        @Override
+        public String toString() {
+            return isLeaf ? "Leaf{" + label + '}' : "Split{" + attribute + (threshold == null ? "" : " <= " + threshold) + '}';
+        }
+    }
+}
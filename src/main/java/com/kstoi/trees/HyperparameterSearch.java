@@ -0,0 +1,162 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Picks {@link PrunedDecisionTree} settings by cross-validation, over a grid
+ * of {@code maxDepth}, {@code minSamplesSplit} and {@code minGain} values or
+ * a random sample of it.
+ *
+ * <p>With {@code warmStart} every fold builds one tree with the loosest of
+ * the candidates' settings and derives the tree of every candidate from it
+ * with {@link TreePruner#truncate}, which gives the same trees as building
+ * each, folds running concurrently on the {@code pool}. Otherwise every (settings, fold) build is a task of its own,
+ * see {@link CrossValidation}.
+ */
+@Slf4j
+public class HyperparameterSearch {
+    private final Dataset dataset;
+    private final int folds;
+    @Getter
+    @Setter
+    private boolean stratified = true;
+    @Getter
+    @Setter
+    private long seed;
+    @Getter
+    @Setter
+    private int bins;
+    @Getter
+    @Setter
+    private SplitCriterion criterion = SplitCriterion.ENTROPY;
+    @Getter
+    @Setter
+    private boolean warmStart = true;
+    /**
+     * Pool the builds run on, null to run them one after the other.
+     */
+    @Getter
+    @Setter
+    private ForkJoinPool pool;
+
+    public HyperparameterSearch(Dataset dataset, int folds) {
+        this.dataset = dataset;
+        this.folds = folds;
+    }
+
+    /**
+     * @return every combination of the values, depth varying slowest
+     */
+    public static List<Settings> grid(int[] maxDepths, int[] minSamplesSplits, double[] minGains) {
+        List<Settings> grid = new ArrayList<>();
+        for (int maxDepth : maxDepths) {
+            for (int minSamplesSplit : minSamplesSplits) {
+                for (double minGain : minGains) grid.add(new Settings(maxDepth, minSamplesSplit, minGain));
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return {@code count} distinct combinations of the values drawn at random, all of them when there are fewer
+     */
+    public List<Settings> random(int count, int[] maxDepths, int[] minSamplesSplits, double[] minGains) {
+        var grid = grid(maxDepths, minSamplesSplits, minGains);
+        var random = new SplittableRandom(seed);
+        int size = Math.min(count, grid.size());
+        // partial shuffle, the first size entries are the sample
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(grid.size() - i);
+            var swap = grid.get(i);
+            grid.set(i, grid.get(j));
+            grid.set(j, swap);
+        }
+        return new ArrayList<>(grid.subList(0, size));
+    }
+
+    /**
+     * Cross-validates every candidate on the same folds.
+     *
+     * @return the candidates' results, best mean accuracy first
+     */
+    public List<Result> search(List<Settings> candidates) {
+        var validation = new CrossValidation(dataset, folds);
+        validation.setStratified(stratified);
+        validation.setSeed(seed);
+        validation.setPool(pool);
+        if (bins > 0) dataset.quantize(bins);
+
+        long start = System.nanoTime();
+        List<CrossValidation.Result> scores;
+        if (warmStart) {
+            scores = validation.evaluateAll(train -> trainAll(candidates, train));
+        } else {
+            List<Function<Dataset, CompiledTree>> trainers = new ArrayList<>();
+            for (var settings : candidates) trainers.add(train -> train(settings, train));
+            scores = validation.evaluate(trainers);
+        }
+        log.info("searched {} settings on {} folds in {} ms", candidates.size(), folds,
+                (System.nanoTime() - start) / 1_000_000);
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) results.add(new Result(candidates.get(i), scores.get(i)));
+        results.sort(Comparator.comparingDouble((Result result) -> result.getScores().getMean()).reversed());
+        return results;
+    }
+
+    private CompiledTree train(Settings settings, Dataset train) {
+        var tree = new PrunedDecisionTree(train, settings.maxDepth, settings.minSamplesSplit, settings.minGain);
+        tree.setBins(bins);
+        tree.setCriterion(criterion);
+        return tree.compile(tree.build());
+    }
+
+    private List<CompiledTree> trainAll(List<Settings> candidates, Dataset train) {
+        int maxDepth = 0, minSamplesSplit = Integer.MAX_VALUE;
+        double minGain = Double.MAX_VALUE;
+        for (var settings : candidates) {
+            maxDepth = Math.max(maxDepth, settings.maxDepth);
+            minSamplesSplit = Math.min(minSamplesSplit, settings.minSamplesSplit);
+            minGain = Math.min(minGain, settings.minGain);
+        }
+        var tree = new PrunedDecisionTree(train, maxDepth, minSamplesSplit, minGain);
+        tree.setBins(bins);
+        tree.setCriterion(criterion);
+        var root = tree.build();
+        var pruner = new TreePruner<>(tree);
+        List<CompiledTree> trees = new ArrayList<>();
+        for (var settings : candidates) {
+            trees.add(tree.compile(pruner.truncate(root, settings.maxDepth, settings.minSamplesSplit, settings.minGain)));
+        }
+        return trees;
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Settings {
+        private final int maxDepth;
+        private final int minSamplesSplit;
+        private final double minGain;
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Result {
+        private final Settings settings;
+        private final CrossValidation.Result scores;
+    }
+}
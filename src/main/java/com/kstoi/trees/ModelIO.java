@@ -0,0 +1,239 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.BinaryWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads compiled models, so a trained model can be scored without
+ * the training data or retraining.
+ *
+ * <p>Layout, written with {@link BinaryWriter}:
+ * <pre>
+ * int magic, int version, byte kind (1 tree, 2 forest, 3 boosted), int tree count
+ * int feature count, then per feature (shared by all trees):
+ *   string name, byte numeric, int dictionary size, string value... (in code order)
+ * int class count, string class...
+ * per tree: int node count, int child count,
+ *   int feature[nodes], byte nominal[nodes], double threshold[nodes],
+ *   int first[nodes], int arity[nodes], int label[nodes], int children[child count]
+ * boosted instead: double base score, int node count, int feature[nodes],
+ *   double threshold[nodes], int left[nodes], int right[nodes], double value[nodes],
+ *   int root[tree count]
+ * </pre>
+ * The file is mapped on load and the node blocks are copied out of the mapping
+ * in bulk, so scoring runs on plain arrays as it does on a freshly compiled tree.
+ * Every length is checked against what is left of the file and every node
+ * reference against the arrays it points into, so a file cut short or
+ * corrupt fails to load with a {@link StreamCorruptedException}.
+ */
+@Slf4j
+public final class ModelIO {
+    private static final int MAGIC = 0x4b544d44;
+    private static final int VERSION = 1;
+    private static final byte TREE = 1;
+    private static final byte FOREST = 2;
+    private static final byte BOOSTED = 3;
+
+    private ModelIO() {
+    }
+
+    /**
+     * Writes {@code model} to {@code file}, aside first and then moved in place.
+     */
+    public static void write(CompiledModel model, File file) throws IOException {
+        if (model instanceof GeneratedTree generated) model = generated.tree;
+        if (model instanceof CompiledBoostedTrees boosted) {
+            write(boosted, file);
+            return;
+        }
+        byte kind;
+        CompiledTree[] trees;
+        if (model instanceof CompiledTree tree) {
+            kind = TREE;
+            trees = new CompiledTree[]{tree};
+        } else if (model instanceof CompiledForest forest) {
+            kind = FOREST;
+            trees = forest.getTrees();
+        } else {
+            throw new IllegalArgumentException("Cannot save " + model.getClass().getSimpleName());
+        }
+        var temp = new File(file.getPath() + ".tmp");
+        try (var out = new BinaryWriter(temp.toPath())) {
+            out.putInt(MAGIC).putInt(VERSION).put(kind).putInt(trees.length);
+            writeSchema(trees[0].schema, out);
+            for (var tree : trees) writeNodes(tree, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("saved {} trees to {}", trees.length, file);
+    }
+
+    private static void write(CompiledBoostedTrees model, File file) throws IOException {
+        var temp = new File(file.getPath() + ".tmp");
+        try (var out = new BinaryWriter(temp.toPath())) {
+            out.putInt(MAGIC).putInt(VERSION).put(BOOSTED).putInt(model.roots.length);
+            writeSchema(model.schema, out);
+            out.putDouble(model.baseScore).putInt(model.feature.length);
+            out.putInts(model.feature).putDoubles(model.threshold).putInts(model.left).putInts(model.right);
+            out.putDoubles(model.value).putInts(model.roots);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("saved {} boosted trees to {}", model.roots.length, file);
+    }
+
+    public static CompiledModel read(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            return read(buffer, file);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            var corrupted = new StreamCorruptedException(file + " is cut short or corrupt: " + e);
+            corrupted.initCause(e);
+            throw corrupted;
+        }
+    }
+
+    private static CompiledModel read(ByteBuffer buffer, File file) throws StreamCorruptedException {
+        if (buffer.remaining() < Integer.BYTES || buffer.getInt() != MAGIC) throw new StreamCorruptedException(file + " is not a model file");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new StreamCorruptedException(file + " has unsupported version " + version);
+        byte kind = buffer.get();
+        int trees = buffer.getInt();
+        if ((kind != TREE || trees != 1) && (kind != FOREST || trees < 1) && (kind != BOOSTED || trees < 0)) {
+            throw new StreamCorruptedException(file + " holds " + trees + " models of kind " + kind);
+        }
+        var schema = readSchema(buffer);
+        if (kind == BOOSTED) {
+            double baseScore = buffer.getDouble();
+            int size = buffer.getInt();
+            int[] feature = ints(buffer, size);
+            double[] threshold = doubles(buffer, size);
+            int[] left = ints(buffer, size);
+            int[] right = ints(buffer, size);
+            double[] value = doubles(buffer, size);
+            int[] roots = ints(buffer, trees);
+            int width = schema.features.size();
+            for (int i = 0; i < size; i++) {
+                if (feature[i] >= 0) {
+                    check(feature[i] < width && left[i] > i && left[i] < size && right[i] > i && right[i] < size, "node", i);
+                }
+            }
+            for (int root : roots) check(root >= 0 && root < size, "root", root);
+            log.info("loaded {} boosted trees from {}", trees, file);
+            return new CompiledBoostedTrees(schema, baseScore, roots, feature, threshold, left, right, value);
+        }
+        var compiled = new CompiledTree[trees];
+        for (int i = 0; i < trees; i++) compiled[i] = readNodes(buffer, schema);
+        log.info("loaded {} trees from {}", trees, file);
+        return kind == TREE ? compiled[0] : new CompiledForest(compiled);
+    }
+
+    private static void writeSchema(FeatureSchema schema, BinaryWriter out) throws IOException {
+        var features = schema.features;
+        out.putInt(features.size());
+        for (int f = 0; f < features.size(); f++) {
+            out.putString(features.get(f));
+            out.put((byte) (schema.numeric[f] ? 1 : 0));
+            var dictionary = new String[schema.dictionaries[f].size()];
+            schema.dictionaries[f].forEach((value, code) -> dictionary[code] = value);
+            out.putInt(dictionary.length);
+            for (var value : dictionary) out.putString(value);
+        }
+        out.putInt(schema.classes.size());
+        for (var label : schema.classes) out.putString(label);
+    }
+
+    private static void writeNodes(CompiledTree tree, BinaryWriter out) throws IOException {
+        out.putInt(tree.size()).putInt(tree.children.length);
+        out.putInts(tree.feature);
+        for (boolean nominal : tree.nominal) out.put((byte) (nominal ? 1 : 0));
+        out.putDoubles(tree.threshold);
+        out.putInts(tree.first).putInts(tree.arity).putInts(tree.label).putInts(tree.children);
+    }
+
+    private static FeatureSchema readSchema(ByteBuffer buffer) {
+        int width = count(buffer, buffer.getInt(), 2 * Integer.BYTES + 1);
+        var features = new ArrayList<String>(width);
+        var numericFeatures = new boolean[width];
+        Map<String, Integer>[] dictionaries = FeatureSchema.newDictionaries(width);
+        for (int f = 0; f < width; f++) {
+            features.add(BinaryWriter.getString(buffer));
+            numericFeatures[f] = buffer.get() != 0;
+            int size = count(buffer, buffer.getInt(), Integer.BYTES);
+            dictionaries[f] = new HashMap<>();
+            for (int code = 0; code < size; code++) dictionaries[f].put(BinaryWriter.getString(buffer), code);
+        }
+        int classCount = count(buffer, buffer.getInt(), Integer.BYTES);
+        var classes = new ArrayList<String>(classCount);
+        for (int i = 0; i < classCount; i++) classes.add(BinaryWriter.getString(buffer));
+        return new FeatureSchema(List.copyOf(features), numericFeatures, dictionaries, List.copyOf(classes));
+    }
+
+    private static CompiledTree readNodes(ByteBuffer buffer, FeatureSchema schema) {
+        int size = buffer.getInt();
+        int childCount = buffer.getInt();
+        int[] feature = ints(buffer, size);
+        var nominalBytes = new byte[count(buffer, size, 1)];
+        buffer.get(nominalBytes);
+        var nominal = new boolean[size];
+        for (int i = 0; i < size; i++) nominal[i] = nominalBytes[i] != 0;
+        double[] threshold = doubles(buffer, size);
+        int[] first = ints(buffer, size);
+        int[] arity = ints(buffer, size);
+        int[] label = ints(buffer, size);
+        int[] children = ints(buffer, childCount);
+        int width = schema.features.size();
+        for (int i = 0; i < size; i++) {
+            // a node scores as its label when it has no child for a value, so every node needs one
+            check(label[i] >= 0 && label[i] < schema.classes.size(), "label of node", i);
+            if (feature[i] < 0) continue;
+            check(feature[i] < width && (nominal[i] || arity[i] == 2) && first[i] >= 0 && arity[i] >= 0
+                    && arity[i] <= childCount - first[i], "node", i);
+            // depth first order, a child comes after its parent
+            for (int c = first[i]; c < first[i] + arity[i]; c++) {
+                check(children[c] == -1 || children[c] > i && children[c] < size, "child of node", i);
+            }
+        }
+        return new CompiledTree(schema, feature, nominal, threshold, first, arity, label, children);
+    }
+
+    /**
+     * @return {@code count}, when that many items of at least {@code bytes} each fit in what is left of the buffer
+     * @throws BufferUnderflowException when they do not
+     */
+    private static int count(ByteBuffer buffer, int count, int bytes) {
+        if (count < 0 || (long) count * bytes > buffer.remaining()) throw new BufferUnderflowException();
+        return count;
+    }
+
+    private static void check(boolean valid, String what, int index) {
+        if (!valid) throw new IllegalArgumentException("bad " + what + " " + index);
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        var values = new int[count(buffer, count, Integer.BYTES)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] doubles(ByteBuffer buffer, int count) {
+        var values = new double[count(buffer, count, Double.BYTES)];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * Double.BYTES);
+        return values;
+    }
+}
@@ -0,0 +1,26 @@
+package com.kstoi.trees;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * How much of a fork-join pool a tree build kept busy.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ParallelismReport {
+    private final int forkedSubtrees;
+    private final int inlineSubtrees;
+    private final int peakConcurrency;
+    private final long wallNanos;
+    private final long busyNanos;
+
+    /**
+     * @return the average number of workers building the tree over the build
+     */
+    public double getAverageParallelism() {
+        return wallNanos == 0 ? 0d : (double) busyNanos / wallNanos;
+    }
+}
@@ -0,0 +1,163 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Bagged {@link PrunedDecisionTree}s voting on the class.
+ *
+ * <p>Every tree is trained on a bootstrap sample of the dataset, drawn as
+ * line positions over the shared columns (see {@link Dataset#subset(int[])}),
+ * and scores {@code maxFeatures} random attributes per node, by default the
+ * square root of the attribute count. With a {@code pool} set the trees are
+ * trained concurrently, one task per tree. A forest is reproducible from its
+ * {@code seed} whatever the pool.
+ */
+@Slf4j
+public class RandomForest implements DecTree<RandomForest.Forest> {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final Dataset dataset;
+    private final int trees;
+    @Getter
+    @Setter
+    private int maxFeatures;
+    @Getter
+    @Setter
+    private int maxDepth = Integer.MAX_VALUE;
+    @Getter
+    @Setter
+    private int minSamplesSplit = 2;
+    @Getter
+    @Setter
+    private int bins;
+    @Getter
+    @Setter
+    private long seed;
+    @Getter
+    @Setter
+    private SplitCriterion criterion = SplitCriterion.ENTROPY;
+    /**
+     * Pool the trees are trained and the batches scored on, null to do both sequentially.
+     */
+    @Getter
+    @Setter
+    private ForkJoinPool pool;
+
+    public RandomForest(Dataset dataset, int trees) {
+        this.dataset = dataset;
+        this.trees = trees;
+    }
+
+    @Override
+    public String toString() {
+        return "RandomForest{" +
+                "trees=" + trees +
+                ", maxFeatures=" + maxFeatures +
+                ", maxDepth=" + maxDepth +
+                ", minSamplesSplit=" + minSamplesSplit +
+                '}';
+    }
+
+    @Override
+    public Forest build() {
+        int features = maxFeatures > 0 ? maxFeatures
+                : Math.max(1, (int) Math.round(Math.sqrt(dataset.getAttributes().size() - 1)));
+        log.info("Building {} trees on {} of the attributes per node", trees, features);
+        if (bins > 0) dataset.quantize(bins);
+
+        var forest = new Forest();
+        if (pool == null) {
+            for (int i = 0; i < trees; i++) forest.roots.add(buildTree(i, features));
+            return forest;
+        }
+        List<ForkJoinTask<PrunedDecisionTree.Node>> tasks = new ArrayList<>();
+        for (int i = 0; i < trees; i++) {
+            int tree = i;
+            tasks.add(pool.submit(() -> buildTree(tree, features)));
+        }
+        for (var task : tasks) forest.roots.add(task.join());
+        return forest;
+    }
+
+    /**
+     * Builds tree {@code i} on its own bootstrap sample. The tree's sample and
+     * node seeds only depend on {@link #seed} and {@code i}.
+     */
+    private PrunedDecisionTree.Node buildTree(int i, int features) {
+        var random = new SplittableRandom(seed + i * GOLDEN_GAMMA);
+        int size = dataset.getData().size();
+        int[] sample = new int[size];
+        for (int j = 0; j < size; j++) sample[j] = random.nextInt(size);
+
+        var tree = new PrunedDecisionTree(dataset.subset(sample), maxDepth, minSamplesSplit, 0);
+        tree.setBins(bins);
+        tree.setMaxFeatures(features);
+        tree.setCriterion(criterion);
+        tree.setSeed(random.nextLong());
+        return tree.build();
+    }
+
+    /**
+     * @return the most voted class, ties going to the first class of the dataset
+     */
+    @Override
+    public String predict(Forest forest, Dataset.Line instance) {
+        var target = dataset.getColumn(dataset.getTarget());
+        int[] votes = new int[target.cardinality()];
+        for (var root : forest.roots) {
+            int code = target.code(AbstractDecisionTree.predictNode(root, instance));
+            if (code >= 0) votes[code]++;
+        }
+        int best = 0;
+        for (int c = 1; c < votes.length; c++) {
+            if (votes[c] > votes[best]) best = c;
+        }
+        return target.getDictionary().get(best);
+    }
+
+    public CompiledForest compile(Forest forest) {
+        var schema = FeatureSchema.of(dataset);
+        var compiled = new CompiledTree[forest.roots.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = CompiledTree.compile(forest.roots.get(i), schema);
+        }
+        return new CompiledForest(compiled);
+    }
+
+    @Override
+    public String[] predictBatch(Forest forest, Dataset dataset) {
+        return compile(forest).predictBatchLabels(dataset, pool);
+    }
+
+    /**
+     * The trained trees of a forest. Drawing a forest draws its first tree.
+     */
+    public static class Forest implements TreeNode {
+        final List<PrunedDecisionTree.Node> roots = new ArrayList<>();
+
+        public List<PrunedDecisionTree.Node> getRoots() {
+            return roots;
+        }
+
+        @Override
+        public void forEach(Consumer<Map<String, Object>> consumer, int x, int y, int dx, int dy) {
+            if (!roots.isEmpty()) roots.get(0).forEach(consumer, x, y, dx, dy);
+        }
+
+        @Override
+        public String toString() {
+            return "Forest{trees=" + roots.size() + '}';
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.TreeMath;
+
+/**
+ * How the trees score a split, from class count arrays.
+ *
+ * <p>{@link #weighted} is a node's impurity times its number of rows, so the
+ * gain of a split is the parent's weighted impurity minus its children's,
+ * over the parent's rows, with no division per class.
+ */
+public enum SplitCriterion {
+    /**
+     * Information gain in bits. Entropy times rows is {@code n log n} of the
+     * rows minus that of every class count, read from a table for small counts.
+     */
+    ENTROPY {
+        @Override
+        double weighted(int[] counts, int offset, int classes, int total) {
+            double weighted = TreeMath.nLog2n(total);
+            for (int c = offset; c < offset + classes; c++) weighted -= TreeMath.nLog2n(counts[c]);
+            return weighted;
+        }
+    },
+    /**
+     * Decrease in Gini impurity, {@code 1 - sum p²}.
+     */
+    GINI {
+        @Override
+        double weighted(int[] counts, int offset, int classes, int total) {
+            if (total == 0) return 0d;
+            long squares = 0;
+            for (int c = offset; c < offset + classes; c++) squares += (long) counts[c] * counts[c];
+            return total - (double) squares / total;
+        }
+    },
+    /**
+     * C4.5 gain ratio: information gain over the entropy of the children's
+     * sizes, which keeps attributes with many values from winning by splitting
+     * the rows thin.
+     */
+    GAIN_RATIO {
+        @Override
+        double weighted(int[] counts, int offset, int classes, int total) {
+            return ENTROPY.weighted(counts, offset, classes, total);
+        }
+
+        @Override
+        boolean usesSplitInformation() {
+            return true;
+        }
+
+        @Override
+        double gain(double parent, double children, int n, double splitInformation) {
+            return splitInformation > 0d ? (parent - children) / splitInformation : 0d;
+        }
+    };
+
+    /**
+     * @return the impurity of {@code counts[offset..offset + classes)} times {@code total}
+     */
+    abstract double weighted(int[] counts, int offset, int classes, int total);
+
+    double weighted(int[] counts, int total) {
+        return weighted(counts, 0, counts.length, total);
+    }
+
+    /**
+     * @return true when {@link #gain} needs the split information of the children's sizes
+     */
+    boolean usesSplitInformation() {
+        return false;
+    }
+
+    /**
+     * @param parent           weighted impurity of the node
+     * @param children         sum of the children's weighted impurities
+     * @param n                rows of the node
+     * @param splitInformation {@code n log n} of the node's rows minus that of every
+     *                         child's, only computed when {@link #usesSplitInformation()}
+     */
+    double gain(double parent, double children, int n, double splitInformation) {
+        return (parent - children) / n;
+    }
+}
@@ -0,0 +1,167 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Column;
+import com.kstoi.utils.TreeMath;
+
+/**
+ * Split search kernels shared by the tree builders. A node's rows are the
+ * range {@code [from, to)} of a row index array.
+ */
+final class SplitSearch {
+    private SplitSearch() {}
+
+    /**
+     * Finds the best threshold of a numeric attribute from the node's rows
+     * sorted by the attribute, {@code order[from..to)}. Every threshold is
+     * evaluated in a single pass, moving one row at a time from the right
+     * class counts to the left.
+     *
+     * @return {gain, threshold}, gain is 0 when no threshold improves on the node
+     */
+    static double[] bestThresholdNumeric(int[] order, int from, int to, double[] values, int[] labels, int[] counts,
+                                         SplitCriterion criterion) {
+        int n = to - from;
+        int[] left = new int[counts.length];
+        int[] right = counts.clone();
+
+        double bestGain = 0d;
+        double bestThresh = 0d;
+        double parent = criterion.weighted(counts, n);
+
+        for (int i = 1; i < n; i++) {
+            int previousRow = order[from + i - 1];
+            left[labels[previousRow]]++;
+            right[labels[previousRow]]--;
+            double prev = values[previousRow];
+            double curr = values[order[from + i]];
+            if (prev == curr) continue;
+
+            double gain = binaryGain(criterion, parent, left, i, right, n);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestThresh = (prev + curr) / 2.0;
+            }
+        }
+
+        return new double[]{bestGain, bestThresh};
+    }
+
+    private static double binaryGain(SplitCriterion criterion, double parent,
+                                     int[] left, int leftSize, int[] right, int n) {
+        double children = criterion.weighted(left, leftSize) + criterion.weighted(right, n - leftSize);
+        double splitInformation = criterion.usesSplitInformation()
+                ? TreeMath.nLog2n(n) - TreeMath.nLog2n(leftSize) - TreeMath.nLog2n(n - leftSize) : 0d;
+        return criterion.gain(parent, children, n, splitInformation);
+    }
+
+    /**
+     * Counts the rows of every class.
+     */
+    static int[] classCounts(int[] rows, int from, int to, int[] labels, int classes) {
+        int[] counts = new int[classes];
+        for (int i = from; i < to; i++) counts[labels[rows[i]]]++;
+        return counts;
+    }
+
+    /**
+     * Information gain of a multiway split on a nominal attribute, from a
+     * (value, class) count matrix filled in one pass over the rows.
+     */
+    static double nominalGain(int[] rows, int from, int to, Column column, int[] labels, int[] counts,
+                              SplitCriterion criterion) {
+        int n = to - from;
+        int classes = counts.length;
+        int[] matrix = new int[column.cardinality() * classes];
+        int[] codes = column.getCodes();
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            matrix[codes[row] * classes + labels[row]]++;
+        }
+        double children = 0d;
+        double splitInformation = TreeMath.nLog2n(n);
+        for (int value = 0; value < column.cardinality(); value++) {
+            int size = 0;
+            for (int c = 0; c < classes; c++) size += matrix[value * classes + c];
+            if (size == 0) continue;
+            children += criterion.weighted(matrix, value * classes, classes, size);
+            splitInformation -= TreeMath.nLog2n(size);
+        }
+        return criterion.gain(criterion.weighted(counts, n), children, n, splitInformation);
+    }
+
+    /**
+     * @return the class with the most rows, ties going to the first class in {@code tieOrder}
+     */
+    static int majority(int[] counts, int[] tieOrder) {
+        int best = tieOrder[0];
+        for (int c : tieOrder) {
+            if (counts[c] > counts[best]) best = c;
+        }
+        return best;
+    }
+
+    /**
+     * Counts the rows of every (bin, class) pair, laid out as {@code bin * classes + class}.
+     */
+    static int[] histogram(int[] rows, int from, int to, Column.Bins bins, int[] labels, int classes) {
+        int[] hist = new int[bins.count() * classes];
+        short[] codes = bins.getCodes();
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            hist[codes[row] * classes + labels[row]]++;
+        }
+        return hist;
+    }
+
+    static void subtract(int[] hist, int[] other) {
+        for (int i = 0; i < hist.length; i++) {
+            hist[i] -= other[i];
+        }
+    }
+
+    /**
+     * Same sweep as {@link #bestThresholdNumeric} but over the bins of a
+     * histogram. The threshold between two bins is the midpoint of the largest
+     * value of the lower bin and the smallest value of the upper one, so with
+     * one bin per distinct value the result is the exact split.
+     *
+     * @return {gain, threshold}, gain is 0 when no threshold improves on the node
+     */
+    static double[] bestThresholdHistogram(int[] hist, Column.Bins bins, int classes, int n, SplitCriterion criterion) {
+        int[] left = new int[classes];
+        int[] right = new int[classes];
+        for (int i = 0; i < hist.length; i++) {
+            right[i % classes] += hist[i];
+        }
+
+        double bestGain = 0d;
+        double bestThresh = 0d;
+        double parent = criterion.weighted(right, n);
+        double[] lower = bins.getLower();
+        double[] upper = bins.getUpper();
+
+        int leftSize = 0;
+        int previous = -1;
+        for (int bin = 0; bin < bins.count(); bin++) {
+            int binSize = 0;
+            for (int c = 0; c < classes; c++) binSize += hist[bin * classes + c];
+            if (binSize == 0) continue;
+
+            if (previous >= 0) {
+                double gain = binaryGain(criterion, parent, left, leftSize, right, n);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    bestThresh = (upper[previous] + lower[bin]) / 2.0;
+                }
+            }
+            for (int c = 0; c < classes; c++) {
+                left[c] += hist[bin * classes + c];
+                right[c] -= hist[bin * classes + c];
+            }
+            leftSize += binSize;
+            previous = bin;
+        }
+
+        return new double[]{bestGain, bestThresh};
+    }
+}
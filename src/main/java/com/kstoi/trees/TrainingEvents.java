@@ -0,0 +1,64 @@
+package com.kstoi.trees;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events of tree builds. A build event is recorded by every
+ * recording; split events, one per split node, have to be enabled, e.g.
+ * {@code -XX:StartFlightRecording:com.kstoi.TreeSplit#enabled=true}.
+ */
+final class TrainingEvents {
+    private TrainingEvents() {}
+
+    @Name("com.kstoi.TreeBuild")
+    @Label("Tree Build")
+    @Category({"Decision Trees", "Training"})
+    static class Build extends Event {
+        @Label("Builder")
+        String builder;
+        @Label("Rows")
+        int rows;
+        @Label("Nodes")
+        int nodes;
+        @Label("Leaves")
+        int leaves;
+        @Label("Depth")
+        int depth;
+        @Label("Numeric Split Search")
+        @Timespan
+        long numericSearch;
+        @Label("Nominal Split Search")
+        @Timespan
+        long nominalSearch;
+        @Label("Histograms")
+        @Timespan
+        long histograms;
+        @Label("Partitioning")
+        @Timespan
+        long partition;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("com.kstoi.TreeSplit")
+    @Label("Tree Split")
+    @Category({"Decision Trees", "Training"})
+    @Enabled(false)
+    static class Split extends Event {
+        @Label("Depth")
+        int depth;
+        @Label("Rows")
+        int rows;
+        @Label("Attribute")
+        String attribute;
+        @Label("Gain")
+        double gain;
+    }
+}
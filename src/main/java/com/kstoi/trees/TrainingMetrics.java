@@ -0,0 +1,43 @@
+package com.kstoi.trees;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Where the time of a tree build went. Phase times are summed over the
+ * threads that worked on the build, so on a pool they add up to more than
+ * the wall time.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TrainingMetrics {
+    private final int rows;
+    private final long wallNanos;
+    /** quantizing, presorting and the root's class counts and histograms */
+    private final long setupNanos;
+    private final long numericSearchNanos;
+    private final long nominalSearchNanos;
+    /** scanning the histograms of child nodes, on histogram builds */
+    private final long histogramNanos;
+    /** sending rows to the children of splits and partitioning them */
+    private final long partitionNanos;
+    /** rows of every node that was searched for a split, added up */
+    private final long searchedRows;
+    /** nodes created at every depth, the root's first */
+    private final int[] nodesPerDepth;
+    private final int leaves;
+    /** bytes allocated while building, -1 when the JVM does not count them; see {@link AbstractDecisionTree#build()} */
+    private final long allocatedBytes;
+
+    public int getNodes() {
+        int nodes = 0;
+        for (int count : nodesPerDepth) nodes += count;
+        return nodes;
+    }
+
+    public double getRowsPerSecond() {
+        return wallNanos == 0 ? 0d : rows * 1e9 / wallNanos;
+    }
+}
@@ -0,0 +1,480 @@
+package com.kstoi.trees;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Generates a class scoring a {@link CompiledTree} with the tree as code:
+ * a numeric split is a compare against its threshold as a constant and a
+ * branch, a nominal split a {@code tableswitch} on the code, a leaf a
+ * {@code return} of its class. The JIT then compiles the tree itself, with
+ * no loads of node arrays and a branch per split it can predict apart.
+ *
+ * <p>The class is written by hand (class file version 61, with the
+ * stack map frames the verifier wants) and defined as a hidden class next
+ * to this one, unloaded with the model. Every split keeps the same locals
+ * and an empty stack, so every frame is the method's entry frame.
+ *
+ * <p>HotSpot does not compile methods of more than 8000 bytes of code, so
+ * the tree is cut into static methods of at most {@value #METHOD_LIMIT}:
+ * bottom up, the largest subtrees of a node over the limit become methods
+ * of their own and the node calls them. A shallow tree is a single method.
+ */
+@Slf4j
+final class TreeCodegen {
+    private static final int METHOD_LIMIT = 4000;
+    /** the farthest an {@code if} can branch, so the most code a method may have here */
+    private static final int MAX_CODE = Short.MAX_VALUE;
+    private static final String CLASS = TreeCodegen.class.getPackageName().replace('.', '/') + "/GeneratedPredictor";
+    private static final String PREDICTOR = GeneratedTree.Predictor.class.getName().replace('.', '/');
+    private static final String DESCRIPTOR = "([DI)I";
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14;
+    private static final int ILOAD_1 = 0x1b, ILOAD_2 = 0x1c, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, DALOAD = 0x31;
+    private static final int IADD = 0x60, D2I = 0x8e, DCMPG = 0x98, IFGT = 0x9d, TABLESWITCH = 0xaa;
+    private static final int IRETURN = 0xac, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    private static final int CALL_SIZE = 6;
+
+    private final CompiledTree tree;
+    private final boolean[] outlined;
+    private final ConstantPool constants = new ConstantPool();
+
+    private TreeCodegen(CompiledTree tree) {
+        this.tree = tree;
+        this.outlined = new boolean[tree.size()];
+    }
+
+    /**
+     * @return the tree's predictor, null when the tree is too large for the methods or constants of a class
+     */
+    static GeneratedTree.Predictor generate(CompiledTree tree) {
+        var codegen = new TreeCodegen(tree);
+        codegen.outline();
+        byte[] bytes = codegen.classFile();
+        if (bytes == null) return null;
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return (GeneratedTree.Predictor) constructor.invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define the generated predictor", e);
+        }
+    }
+
+    /**
+     * Picks the subtrees that become methods. Children are numbered after
+     * their parent, so going down the numbers sizes every child before its parent.
+     */
+    private void outline() {
+        int[] size = new int[tree.size()];
+        for (int node = tree.size() - 1; node >= 0; node--) {
+            if (tree.feature[node] < 0 || tree.nominal[node] && tree.arity[node] == 0) {
+                size[node] = leafSize(tree.label[node]);
+                continue;
+            }
+            int total = splitSize(node);
+            List<Integer> children = new ArrayList<>();
+            for (int child : distinctChildren(node)) {
+                if (child < 0) {
+                    total += leafSize(tree.label[node]);
+                } else {
+                    total += size[child];
+                    children.add(child);
+                }
+            }
+            children.sort((a, b) -> Integer.compare(size[b], size[a]));
+            for (int i = 0; i < children.size() && total > METHOD_LIMIT && size[children.get(i)] > CALL_SIZE; i++) {
+                int child = children.get(i);
+                outlined[child] = true;
+                total -= size[child] - CALL_SIZE;
+            }
+            size[node] = total;
+        }
+    }
+
+    /**
+     * @return the children of a numeric split, left then right, or the distinct children of a nominal one; -1 for none
+     */
+    private int[] distinctChildren(int node) {
+        int from = tree.first[node];
+        if (!tree.nominal[node]) return new int[]{tree.children[from], tree.children[from + 1]};
+        return Arrays.stream(tree.children, from, from + tree.arity[node]).filter(child -> child >= 0).distinct().toArray();
+    }
+
+    private static int leafSize(int label) {
+        return pushSize(label) + 1;
+    }
+
+    /**
+     * @return the bytes of a split's own code: the load of its feature, the
+     *         test, and for a nominal split the widest switch padding and the default
+     */
+    private int splitSize(int node) {
+        int f = tree.feature[node];
+        int load = 3 + (f == 0 ? 0 : pushSize(f) + 1);
+        if (!tree.nominal[node]) return load + 7;
+        return load + 1 + 4 + 12 + 4 * tree.arity[node] + leafSize(tree.label[node]);
+    }
+
+    private static int pushSize(int value) {
+        if (value >= -1 && value <= 5) return 1;
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) return 2;
+        return 3;
+    }
+
+    private byte[] classFile() {
+        var methods = new ByteArrayOutputStream();
+        try {
+            var out = new DataOutputStream(methods);
+            int count = 0;
+
+            var constructor = new Code();
+            constructor.u1(ALOAD_0);
+            constructor.u1(INVOKESPECIAL);
+            constructor.u2(constants.method("java/lang/Object", "<init>", "()V"));
+            constructor.u1(RETURN);
+            writeMethod(out, 0x0001, "<init>", "()V", constructor, 1, 1);
+            count++;
+
+            var predict = new Code();
+            predict.u1(ALOAD_1);
+            predict.u1(ILOAD_2);
+            predict.u1(INVOKESTATIC);
+            predict.u2(constants.method(CLASS, "n0", DESCRIPTOR));
+            predict.u1(IRETURN);
+            writeMethod(out, 0x0001, "predict", DESCRIPTOR, predict, 2, 3);
+            count++;
+
+            for (int node = 0; node < tree.size(); node++) {
+                if (node != 0 && !outlined[node]) continue;
+                var code = new Code();
+                emit(code, node, true);
+                if (code.length > MAX_CODE) {
+                    log.warn("generated code of node {} is {} bytes, over the {} a method can branch across", node, code.length, MAX_CODE);
+                    return null;
+                }
+                writeMethod(out, 0x000a, "n" + node, DESCRIPTOR, code, 4, 2);
+                count++;
+            }
+
+            int thisClass = constants.classRef(CLASS);
+            int superClass = constants.classRef("java/lang/Object");
+            int predictor = constants.classRef(PREDICTOR);
+            if (constants.count > 0xffff) {
+                log.warn("generated class needs {} constants, over the 65535 of a class file", constants.count);
+                return null;
+            }
+
+            var bytes = new ByteArrayOutputStream(methods.size() + constants.bytes.size() + 64);
+            var file = new DataOutputStream(bytes);
+            file.writeInt(0xcafebabe);
+            file.writeShort(0);
+            file.writeShort(61);
+            file.writeShort(constants.count);
+            constants.bytes.writeTo(file);
+            file.writeShort(0x0031);
+            file.writeShort(thisClass);
+            file.writeShort(superClass);
+            file.writeShort(1);
+            file.writeShort(predictor);
+            file.writeShort(0);
+            file.writeShort(count);
+            methods.writeTo(file);
+            file.writeShort(0);
+            log.debug("generated {} bytes of class for a tree of {} nodes", bytes.size(), tree.size());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeMethod(DataOutputStream out, int access, String name, String descriptor,
+                             Code code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(access);
+        out.writeShort(constants.utf8(name));
+        out.writeShort(constants.utf8(descriptor));
+        out.writeShort(1);
+
+        var frames = new ByteArrayOutputStream();
+        int previous = -1;
+        for (int offset : code.frames) {
+            int delta = offset - previous - 1;
+            if (delta < 64) {
+                frames.write(delta);
+            } else {
+                frames.write(251);
+                frames.write(delta >>> 8);
+                frames.write(delta);
+            }
+            previous = offset;
+        }
+        int stackMapLength = code.frames.isEmpty() ? 0 : 8 + frames.size();
+
+        out.writeShort(constants.utf8("Code"));
+        out.writeInt(12 + code.length + stackMapLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code.bytes, 0, code.length);
+        out.writeShort(0);
+        if (code.frames.isEmpty()) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(1);
+        out.writeShort(constants.utf8("StackMapTable"));
+        out.writeInt(2 + frames.size());
+        out.writeShort(code.frames.size());
+        frames.writeTo(out);
+    }
+
+    /**
+     * Writes the code of a subtree; locals are the feature vector and the
+     * offset of the row in it.
+     */
+    private void emit(Code code, int node, boolean method) {
+        if (!method && outlined[node]) {
+            code.u1(ALOAD_0);
+            code.u1(ILOAD_1);
+            code.u1(INVOKESTATIC);
+            code.u2(constants.method(CLASS, "n" + node, DESCRIPTOR));
+            code.u1(IRETURN);
+            return;
+        }
+        int f = tree.feature[node];
+        if (f < 0 || tree.nominal[node] && tree.arity[node] == 0) {
+            leaf(code, tree.label[node]);
+            return;
+        }
+        code.u1(ALOAD_0);
+        code.u1(ILOAD_1);
+        if (f != 0) {
+            push(code, f);
+            code.u1(IADD);
+        }
+        code.u1(DALOAD);
+        int from = tree.first[node];
+        if (!tree.nominal[node]) {
+            // dcmpg puts NaN above the threshold, it goes right as in CompiledTree
+            code.u1(LDC2_W);
+            code.u2(constants.doubleValue(tree.threshold[node]));
+            code.u1(DCMPG);
+            int branch = code.length;
+            code.u1(IFGT);
+            code.u2(0);
+            child(code, node, tree.children[from]);
+            code.patch2(branch + 1, code.length - branch);
+            code.frame();
+            child(code, node, tree.children[from + 1]);
+            return;
+        }
+        int arity = tree.arity[node];
+        code.u1(D2I);
+        int tableswitch = code.length;
+        code.u1(TABLESWITCH);
+        while (code.length % 4 != 0) code.u1(0);
+        int table = code.length;
+        code.u4(0);
+        code.u4(0);
+        code.u4(arity - 1);
+        for (int c = 0; c < arity; c++) code.u4(0);
+
+        int unknown = code.length - tableswitch;
+        code.patch4(table, unknown);
+        code.frame();
+        leaf(code, tree.label[node]);
+        Map<Integer, Integer> emitted = new HashMap<>();
+        for (int c = 0; c < arity; c++) {
+            int child = tree.children[from + c];
+            Integer target = child < 0 ? Integer.valueOf(unknown) : emitted.get(child);
+            if (target == null) {
+                target = code.length - tableswitch;
+                emitted.put(child, target);
+                code.frame();
+                emit(code, child, false);
+            }
+            code.patch4(table + 12 + 4 * c, target);
+        }
+    }
+
+    private void child(Code code, int parent, int child) {
+        if (child < 0) leaf(code, tree.label[parent]);
+        else emit(code, child, false);
+    }
+
+    private void leaf(Code code, int label) {
+        push(code, label);
+        code.u1(IRETURN);
+    }
+
+    private void push(Code code, int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.u1(BIPUSH);
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.u1(SIPUSH);
+            code.u2(value);
+        } else {
+            code.u1(LDC_W);
+            code.u2(constants.intValue(value));
+        }
+    }
+
+    /**
+     * A method's bytecode and the offsets that need a stack map frame.
+     */
+    private static class Code {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private final TreeSet<Integer> frames = new TreeSet<>();
+
+        void u1(int value) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void patch2(int at, int value) {
+            bytes[at] = (byte) (value >>> 8);
+            bytes[at + 1] = (byte) value;
+        }
+
+        void patch4(int at, int value) {
+            patch2(at, value >>> 16);
+            patch2(at + 2, value);
+        }
+
+        /**
+         * Marks the next instruction as a branch target.
+         */
+        void frame() {
+            frames.add(length);
+        }
+    }
+
+    /**
+     * The constant pool, every constant written once.
+     */
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> index = new HashMap<>();
+        /** the next index, doubles take two */
+        private int count = 1;
+
+        int utf8(String value) {
+            var key = "U" + value;
+            var at = index.get(key);
+            if (at != null) return at;
+            write(out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+            return add(key, 1);
+        }
+
+        int classRef(String name) {
+            var key = "C" + name;
+            var at = index.get(key);
+            if (at != null) return at;
+            int utf8 = utf8(name);
+            write(out -> {
+                out.writeByte(7);
+                out.writeShort(utf8);
+            });
+            return add(key, 1);
+        }
+
+        int method(String owner, String name, String descriptor) {
+            var key = "M" + owner + "." + name + descriptor;
+            var at = index.get(key);
+            if (at != null) return at;
+            int classRef = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            var nameAndTypeKey = "N" + name + descriptor;
+            var nameAndType = index.get(nameAndTypeKey);
+            if (nameAndType == null) {
+                write(out -> {
+                    out.writeByte(12);
+                    out.writeShort(nameIndex);
+                    out.writeShort(descriptorIndex);
+                });
+                nameAndType = add(nameAndTypeKey, 1);
+            }
+            int nameAndTypeIndex = nameAndType;
+            write(out -> {
+                out.writeByte(10);
+                out.writeShort(classRef);
+                out.writeShort(nameAndTypeIndex);
+            });
+            return add(key, 1);
+        }
+
+        int intValue(int value) {
+            var key = "I" + value;
+            var at = index.get(key);
+            if (at != null) return at;
+            write(out -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+            return add(key, 1);
+        }
+
+        int doubleValue(double value) {
+            var key = "D" + Double.doubleToRawLongBits(value);
+            var at = index.get(key);
+            if (at != null) return at;
+            write(out -> {
+                out.writeByte(6);
+                out.writeDouble(value);
+            });
+            return add(key, 2);
+        }
+
+        private int add(String key, int slots) {
+            int at = count;
+            index.put(key, at);
+            count += slots;
+            return at;
+        }
+
+        private void write(Entry entry) {
+            try {
+                entry.write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.kstoi.trees;
+
+import com.kstoi.utils.Dataset;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Prunes trees built by an {@link AbstractDecisionTree} from the gain, row
+ * count and class counts every node recorded while it was built, so a
+ * pruned variant costs time in the size of the tree, not of the data, plus
+ * one pass over the validation lines for the methods judged on them.
+ * The tree passed in is left as it is, every method returns a pruned copy.
+ */
+@Slf4j
+public class TreePruner<N extends AbstractNode<N>> {
+    private final AbstractDecisionTree<N> builder;
+    private final Map<String, Integer> classIndex = new HashMap<>();
+
+    /**
+     * @param builder the builder of the trees to prune, it makes the nodes of the copies
+     */
+    public TreePruner(AbstractDecisionTree<N> builder) {
+        this.builder = builder;
+        var classes = builder.dataset.getClasses();
+        for (int c = 0; c < classes.size(); c++) classIndex.put(classes.get(c), c);
+    }
+
+    /**
+     * Cuts the tree where a {@link PrunedDecisionTree} with these settings
+     * and the builder's other settings would have stopped splitting, giving
+     * the tree it would have built.
+     */
+    public N truncate(N root, int maxDepth, int minSamplesSplit, double minGain) {
+        return truncate(root, 0, maxDepth, minSamplesSplit, minGain);
+    }
+
+    private N truncate(N node, int depth, int maxDepth, int minSamplesSplit, double minGain) {
+        if (node.isLeaf || depth >= maxDepth || node.samples < minSamplesSplit || node.gain < minGain) {
+            return leaf(node);
+        }
+        return split(node, child -> truncate(child, depth + 1, maxDepth, minSamplesSplit, minGain));
+    }
+
+    /**
+     * Reduced-error pruning: bottom up, a split becomes a leaf when the leaf
+     * gets no more of the validation lines wrong than the subtree does.
+     * Subtrees no validation line reaches become leaves.
+     */
+    public N reducedError(N root, Dataset validation) {
+        var routed = new Validation(root, validation);
+        long[] errors = new long[1];
+        var pruned = reducedError(root, routed, errors);
+        log.info("reduced-error pruning leaves {} of {} validation lines wrong", errors[0], validation.getData().size());
+        return pruned;
+    }
+
+    private N reducedError(N node, Validation validation, long[] errors) {
+        long leafErrors = validation.errors(validation.reached, node);
+        if (node.isLeaf) {
+            errors[0] = leafErrors;
+            return leaf(node);
+        }
+        long[] subtreeErrors = {validation.errors(validation.stopped, node)};
+        var copy = split(node, child -> {
+            var prunedChild = reducedError(child, validation, errors);
+            subtreeErrors[0] += errors[0];
+            return prunedChild;
+        });
+        if (leafErrors <= subtreeErrors[0]) {
+            errors[0] = leafErrors;
+            return leaf(node);
+        }
+        errors[0] = subtreeErrors[0];
+        return copy;
+    }
+
+    /**
+     * Minimal cost-complexity pruning: the smallest subtree minimizing its
+     * share of training rows misclassified plus {@code alpha} per leaf.
+     */
+    public N costComplexity(N root, double alpha) {
+        return costComplexity(root, alpha * root.samples, new double[1]);
+    }
+
+    private N costComplexity(N node, double leafCost, double[] cost) {
+        double asLeaf = trainingErrors(node) + leafCost;
+        if (node.isLeaf) {
+            cost[0] = asLeaf;
+            return leaf(node);
+        }
+        double[] subtree = {0d};
+        var copy = split(node, child -> {
+            var prunedChild = costComplexity(child, leafCost, cost);
+            subtree[0] += cost[0];
+            return prunedChild;
+        });
+        if (asLeaf <= subtree[0]) {
+            cost[0] = asLeaf;
+            return leaf(node);
+        }
+        cost[0] = subtree[0];
+        return copy;
+    }
+
+    /**
+     * @return the values of {@code alpha}, ascending, at which
+     *         {@link #costComplexity(AbstractNode, double)} prunes the tree further
+     */
+    public double[] costComplexityPath(N root) {
+        var path = new WeakestLinks(root, null);
+        List<Double> alphas = new ArrayList<>();
+        for (int i = 0; i < path.alphas.size(); i++) {
+            if (i + 1 == path.alphas.size() || !path.alphas.get(i + 1).equals(path.alphas.get(i))) {
+                alphas.add(path.alphas.get(i));
+            }
+        }
+        return alphas.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * Cost-complexity pruning with {@code alpha} picked on validation lines:
+     * of the trees along {@link #costComplexityPath(AbstractNode)}, the one
+     * getting the fewest of them wrong, the smallest on a tie.
+     */
+    public N costComplexity(N root, Dataset validation) {
+        var path = new WeakestLinks(root, new Validation(root, validation));
+        int best = 0;
+        long bestErrors = path.initialValidationErrors;
+        for (int i = 0; i < path.order.size(); i++) {
+            // only whole steps of the path, a tree pruned at part of the links of one alpha is not on it
+            boolean step = i + 1 == path.order.size() || !path.alphas.get(i + 1).equals(path.alphas.get(i));
+            if (step && path.validationErrors.get(i) <= bestErrors) {
+                best = i + 1;
+                bestErrors = path.validationErrors.get(i);
+            }
+        }
+        log.info("cost-complexity pruning at alpha {} leaves {} of {} validation lines wrong",
+                best == 0 ? 0d : path.alphas.get(best - 1), bestErrors, validation.getData().size());
+        Set<N> cut = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < best; i++) cut.add(path.order.get(i).node);
+        return cut(root, cut);
+    }
+
+    private N cut(N node, Set<N> cut) {
+        if (node.isLeaf || cut.contains(node)) return leaf(node);
+        return split(node, child -> cut(child, cut));
+    }
+
+    private long trainingErrors(N node) {
+        return node.samples - node.counts[classIndex.get(node.label)];
+    }
+
+    private N leaf(N node) {
+        N copy = builder.newNode();
+        copy.label = node.label;
+        copy.counts = node.counts;
+        copy.samples = node.samples;
+        copy.isLeaf = true;
+        return copy;
+    }
+
+    /**
+     * Copies a split node, its children replaced by {@code child} of them.
+     */
+    private N split(N node, Function<N, N> child) {
+        N copy = builder.newNode();
+        copy.label = node.label;
+        copy.counts = node.counts;
+        copy.samples = node.samples;
+        copy.attribute = node.attribute;
+        copy.threshold = node.threshold;
+        copy.gain = node.gain;
+        if (node.left != null) copy.left = child.apply(node.left);
+        if (node.right != null) copy.right = child.apply(node.right);
+        for (var entry : node.children.entrySet()) {
+            copy.children.put(entry.getKey(), entry.getValue() == null ? null : child.apply(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Validation lines sent down a tree, counted by class at every node they
+     * reach and at the split nodes they stop at for want of a child, as
+     * {@link AbstractDecisionTree#predict} stops.
+     */
+    private class Validation {
+        /** class counts by node, the last slot for classes the tree was not trained on */
+        private final Map<N, int[]> reached = new IdentityHashMap<>();
+        private final Map<N, int[]> stopped = new IdentityHashMap<>();
+
+        Validation(N root, Dataset validation) {
+            var target = validation.getTarget();
+            for (var line : validation.getData()) {
+                int c = classIndex.getOrDefault(line.get(target), classIndex.size());
+                N node = root;
+                while (true) {
+                    reached.computeIfAbsent(node, n -> new int[classIndex.size() + 1])[c]++;
+                    if (node.isLeaf) break;
+                    N next = next(node, line);
+                    if (next == null) {
+                        stopped.computeIfAbsent(node, n -> new int[classIndex.size() + 1])[c]++;
+                        break;
+                    }
+                    node = next;
+                }
+            }
+        }
+
+        private N next(N node, Dataset.Line line) {
+            if (node.threshold != null) {
+                return line.getDouble(node.attribute) <= node.threshold && node.left != null ? node.left : node.right;
+            }
+            return node.children.get(line.get(node.attribute));
+        }
+
+        /**
+         * @return the lines counted at a node that its label gets wrong
+         */
+        long errors(Map<N, int[]> counts, N node) {
+            int[] count = counts.get(node);
+            if (count == null) return 0;
+            long total = 0;
+            for (int n : count) total += n;
+            return total - count[classIndex.get(node.label)];
+        }
+    }
+
+    /**
+     * The weakest link sequence of cost-complexity pruning: repeatedly the
+     * split whose pruning adds the fewest training errors per leaf removed,
+     * the rate being the {@code alpha} it is pruned at. Pruning a link
+     * updates its ancestors only, so the sequence takes time in the tree
+     * size times its depth rather than a pass over the tree per link.
+     */
+    private class WeakestLinks {
+        private final List<Link> order = new ArrayList<>();
+        private final List<Double> alphas = new ArrayList<>();
+        /** validation errors of the tree after every link of {@link #order} */
+        private final List<Long> validationErrors = new ArrayList<>();
+        private final long initialValidationErrors;
+
+        WeakestLinks(N root, Validation validation) {
+            PriorityQueue<Entry> queue = new PriorityQueue<>();
+            var top = link(root, null, validation, queue);
+            initialValidationErrors = top.validationSubtree;
+            double total = root.samples;
+            double alpha = 0d;
+            while (!queue.isEmpty()) {
+                var entry = queue.poll();
+                var link = entry.link;
+                if (entry.version != link.version || link.gone()) continue;
+                alpha = Math.max(alpha, entry.rate / total);
+
+                double errors = link.errors - link.subtreeErrors;
+                int leaves = link.leaves - 1;
+                long validationDelta = link.validationLeaf - link.validationSubtree;
+                link.pruned = true;
+                for (var parent = link.parent; parent != null; parent = parent.parent) {
+                    parent.subtreeErrors += errors;
+                    parent.leaves -= leaves;
+                    parent.validationSubtree += validationDelta;
+                    parent.version++;
+                    if (parent.leaves > 1) queue.add(new Entry(parent));
+                }
+                order.add(link);
+                alphas.add(alpha);
+                validationErrors.add(top.pruned ? top.validationLeaf : top.validationSubtree);
+            }
+        }
+
+        private Link link(N node, Link parent, Validation validation, PriorityQueue<Entry> queue) {
+            var link = new Link(node, parent);
+            link.errors = trainingErrors(node);
+            if (validation != null) link.validationLeaf = validation.errors(validation.reached, node);
+            if (node.isLeaf) {
+                link.subtreeErrors = link.errors;
+                link.leaves = 1;
+                link.validationSubtree = link.validationLeaf;
+                return link;
+            }
+            if (validation != null) link.validationSubtree = validation.errors(validation.stopped, node);
+            List<N> children = new ArrayList<>();
+            if (node.left != null) children.add(node.left);
+            if (node.right != null) children.add(node.right);
+            for (N child : node.children.values()) {
+                if (child != null) children.add(child);
+            }
+            for (N child : children) {
+                var childLink = link(child, link, validation, queue);
+                link.subtreeErrors += childLink.subtreeErrors;
+                link.leaves += childLink.leaves;
+                link.validationSubtree += childLink.validationSubtree;
+            }
+            if (link.leaves > 1) queue.add(new Entry(link));
+            return link;
+        }
+    }
+
+    private class Link {
+        private final N node;
+        private final Link parent;
+        /** training errors as a leaf and of the subtree as it currently is */
+        private double errors, subtreeErrors;
+        private int leaves;
+        private long validationLeaf, validationSubtree;
+        private boolean pruned;
+        private int version;
+
+        Link(N node, Link parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+
+        boolean gone() {
+            for (var link = this; link != null; link = link.parent) {
+                if (link.pruned) return true;
+            }
+            return false;
+        }
+    }
+
+    private class Entry implements Comparable<Entry> {
+        private final Link link;
+        private final int version;
+        /** training errors added per leaf removed */
+        private final double rate;
+
+        Entry(Link link) {
+            this.link = link;
+            this.version = link.version;
+            this.rate = (link.errors - link.subtreeErrors) / (link.leaves - 1);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Double.compare(rate, other.rate);
+        }
+    }
+}
@@ -3,11 +3,19 @@ package com.kstoi.utils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.util.List;
 
+/**
+ * Reads ARFF files. The header is read once, then the {@code @data} section is
+ * parsed line by line straight into the dataset's columns, so the file is
+ * never held in memory as text.
+ */
 @Slf4j
 public class ArffReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+
     private File file;
 
     public ArffReader(File file) throws FileNotFoundException {
@@ -15,26 +23,205 @@ public class ArffReader {
     }
     public Dataset loadData() throws IOException {
         log.info("reading data ...");
-        var bf = new BufferedReader(new FileReader(file));
-        var lines = bf.lines().toList();
-        var dataset = new Dataset(lines.stream().filter(s -> s.contains("@relation")).toList().toString());
-        var attributes = new ArrayList<String>();
-        lines.stream().filter(line -> line.contains("@attribute")).forEach(line -> {
-               attributes.add(line.split("@attribute")[1].split(" ")[1].trim());
-        });
-        var data = lines.stream().filter(line -> {
-            return !line.contains("@attribute") && !line.contains("@relation") && line.contains(",");
-        });
+        try (var reader = new LineNumberReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            var header = readHeader(reader);
+            var dataset = new Dataset(header.relation);
+            var attributes = header.attributes;
+            var sparseDefaults = header.getSparseDefaults();
+            String line;
+            long rows = 0;
+            while ((line = reader.readLine()) != null) {
+                String[] values;
+                try {
+                    values = parseRow(line, sparseDefaults);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + " line " + reader.getLineNumber() + ": " + e.getMessage(), e);
+                }
+                if (values != null) {
+                    dataset.load(attributes, values);
+                    rows++;
+                }
+            }
+            log.info("read {} rows", rows);
+            return finish(dataset, attributes);
+        }
+    }
+
+    /**
+     * Loads the dataset from its binary cache next to the file ({@code <file>.bin}),
+     * parsing the file and writing the cache first when there is none or the
+     * file changed since it was written. A cache that cannot be written is
+     * logged and the parsed dataset returned all the same.
+     */
+    public Dataset loadCached() throws IOException {
+        var cache = new DatasetCache(new File(file.getPath() + ".bin"));
+        var dataset = cache.load(file);
+        if (dataset == null) {
+            dataset = loadData();
+            try {
+                cache.write(dataset, file);
+            } catch (IOException e) {
+                log.warn("cannot cache {}: {}", file, e.toString());
+            }
+        }
+        return dataset;
+    }
+
+    /**
+     * Drops the decision attributes, which give the match away, and sets the
+     * remaining ones on the dataset.
+     */
+    static Dataset finish(Dataset dataset, List<String> header) {
+        var attributes = new ArrayList<>(header);
         int previous_size = attributes.size();
-        data.forEach(datum -> {
-            dataset.load(attributes,datum.split(","));
-        });
-//        for(String attribute : attributes)
-//            log.info("{}" , attribute);
         attributes.removeIf( string -> string.contains("decision"));
         log.info("attributes {} reduced to {} by removing decision decision_o",previous_size,attributes.size());
         log.info("data loading complete");
         dataset.setAttributes(attributes);
         return dataset;
     }
+
+    static class Header {
+        String relation = "";
+        final List<String> attributes = new ArrayList<>();
+        /** value of every attribute a sparse row leaves out */
+        final List<String> sparseDefaults = new ArrayList<>();
+
+        String[] getSparseDefaults() {
+            return sparseDefaults.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Reads up to and including the {@code @data} line.
+     */
+    static Header readHeader(BufferedReader reader) throws IOException {
+        var header = new Header();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (parseHeaderLine(line, header)) return header;
+        }
+        throw new EOFException("no @data section");
+    }
+
+    /**
+     * @return true when the line starts the data section
+     */
+    static boolean parseHeaderLine(String line, Header header) {
+        var trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("%")) return false;
+        var lower = trimmed.toLowerCase();
+        if (lower.startsWith("@data")) return true;
+        if (lower.startsWith("@relation")) {
+            header.relation = unquote(trimmed.substring("@relation".length()).trim());
+        } else if (lower.startsWith("@attribute")) {
+            var rest = trimmed.substring("@attribute".length()).trim();
+            int end;
+            if (rest.startsWith("'") || rest.startsWith("\"")) {
+                end = closingQuote(rest, 0) + 1;
+            } else {
+                end = 0;
+                while (end < rest.length() && !Character.isWhitespace(rest.charAt(end))) end++;
+            }
+            header.attributes.add(unquote(rest.substring(0, end)));
+            // a nominal attribute's zero is its first value
+            var type = rest.substring(end).trim();
+            if (type.startsWith("{")) {
+                int close = type.lastIndexOf('}');
+                header.sparseDefaults.add(unquote(split(type.substring(1, close < 0 ? type.length() : close)).get(0)));
+            } else {
+                header.sparseDefaults.add("0");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a data line into one value per attribute. Quoted values may contain
+     * commas and escaped quotes. Sparse rows ({@code {index value, ...}}) get
+     * the zero of every attribute they leave out: 0, or the first value of a
+     * nominal attribute, as the ARFF format defines.
+     *
+     * @return the values or null for blank and comment lines
+     * @throws IllegalArgumentException for a sparse entry without an index or
+     * with one outside the attributes
+     */
+    static String[] parseRow(String line, String[] sparseDefaults) {
+        int start = 0;
+        while (start < line.length() && Character.isWhitespace(line.charAt(start))) start++;
+        if (start == line.length() || line.charAt(start) == '%') return null;
+
+        if (line.charAt(start) == '{') {
+            var values = sparseDefaults.clone();
+            int end = line.lastIndexOf('}');
+            for (var entry : split(line.substring(start + 1, end < 0 ? line.length() : end))) {
+                if (entry.isEmpty()) continue;
+                int space = 0;
+                while (space < entry.length() && !Character.isWhitespace(entry.charAt(space))) space++;
+                int index;
+                try {
+                    index = Integer.parseInt(entry.substring(0, space));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("sparse entry " + entry + " has no index");
+                }
+                if (index < 0 || index >= values.length) {
+                    throw new IllegalArgumentException("sparse index " + index + " is outside the " + values.length + " attributes");
+                }
+                values[index] = unquote(entry.substring(space).trim());
+            }
+            return values;
+        }
+
+        var tokens = split(line.substring(start));
+        var values = new String[tokens.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = unquote(tokens.get(i));
+        }
+        return values;
+    }
+
+    /**
+     * Splits on the commas outside quotes, trimming every token.
+     */
+    private static List<String> split(String line) {
+        var tokens = new ArrayList<String>();
+        int from = 0;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = closingQuote(line, i) + 1;
+            } else if (c == ',') {
+                tokens.add(line.substring(from, i).trim());
+                from = ++i;
+            } else {
+                i++;
+            }
+        }
+        tokens.add(line.substring(from).trim());
+        return tokens;
+    }
+
+    private static int closingQuote(String s, int open) {
+        char quote = s.charAt(open);
+        for (int i = open + 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == quote) return i;
+        }
+        return s.length() - 1;
+    }
+
+    static String unquote(String value) {
+        if (value.length() < 2) return value;
+        char quote = value.charAt(0);
+        if ((quote != '\'' && quote != '"') || value.charAt(value.length() - 1) != quote) return value;
+        var sb = new StringBuilder(value.length() - 2);
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1) c = value.charAt(++i);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,96 @@
+package com.kstoi.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered little endian writes to a file, used by the binary dataset and
+ * model formats. Strings are written as an int byte length and UTF-8 bytes,
+ * {@link #getString(ByteBuffer)} reads them back.
+ */
+public class BinaryWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+    public BinaryWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private BinaryWriter ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+        return this;
+    }
+
+    public BinaryWriter put(byte value) throws IOException {
+        ensure(1).buffer.put(value);
+        return this;
+    }
+
+    public BinaryWriter putInt(int value) throws IOException {
+        ensure(Integer.BYTES).buffer.putInt(value);
+        return this;
+    }
+
+    public BinaryWriter putLong(long value) throws IOException {
+        ensure(Long.BYTES).buffer.putLong(value);
+        return this;
+    }
+
+    public BinaryWriter putDouble(double value) throws IOException {
+        ensure(Double.BYTES).buffer.putDouble(value);
+        return this;
+    }
+
+    public BinaryWriter putInts(int[] values) throws IOException {
+        for (int value : values) putInt(value);
+        return this;
+    }
+
+    public BinaryWriter putDoubles(double[] values) throws IOException {
+        for (double value : values) putDouble(value);
+        return this;
+    }
+
+    public BinaryWriter putString(String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        for (int from = 0; from < bytes.length; ) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - from);
+            buffer.put(bytes, from, length);
+            from += length;
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,307 @@
+package com.kstoi.utils;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single attribute of a {@link Dataset} stored column-wise.
+ * Values that all parse as numbers are kept in a {@code double[]},
+ * anything else is dictionary encoded into {@code int[]} codes.
+ * A column starts out numeric and is converted to nominal the first
+ * time a non numeric value is appended. Nominal values are always encoded
+ * from the text they were read from: until {@link #settle()} a numeric
+ * column keeps the text of every value that {@link #format(double)} would
+ * not give back, such as {@code 1.0} or {@code 01}.
+ */
+@Getter
+public class Column {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String name;
+    private boolean numeric = true;
+    /** the number of rows, only the first {@code size} entries of the arrays below are rows */
+    private int size;
+    /**
+     * The values of a numeric column, null for a nominal one. This is the
+     * backing array, longer than {@link #getSize()} while it has room to grow:
+     * entries past the last row are not rows. Callers must not modify it.
+     */
+    private double[] values = new double[INITIAL_CAPACITY];
+    /**
+     * The dictionary codes of a nominal column, null for a numeric one. This
+     * is the backing array, longer than {@link #getSize()} while it has room
+     * to grow: entries past the last row are not rows. Callers must not modify it.
+     */
+    private int[] codes;
+    /** source text of the numeric rows that format() does not reproduce, null for the others */
+    @Getter(AccessLevel.NONE)
+    private String[] text;
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+    private Bins quantized;
+    private int[] sorted;
+
+    public Column(String name) {
+        this.name = name;
+    }
+
+    /**
+     * A numeric column over the first {@code size} values of an array.
+     */
+    public static Column numeric(String name, double[] values, int size) {
+        var column = new Column(name);
+        column.values = values;
+        column.size = size;
+        return column;
+    }
+
+    /**
+     * A nominal column over the first {@code size} codes of an array.
+     */
+    public static Column nominal(String name, int[] codes, int size, List<String> dictionary) {
+        var column = new Column(name);
+        column.values = null;
+        column.numeric = false;
+        column.codes = codes;
+        column.size = size;
+        for (var value : dictionary) column.encode(value);
+        return column;
+    }
+
+    public void append(String value) {
+        quantized = null;
+        sorted = null;
+        if (numeric) {
+            try {
+                double parsed = Double.parseDouble(value);
+                if (size == values.length) values = Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, size * 2));
+                if (!value.equals(format(parsed))) keepText(size, value);
+                values[size++] = parsed;
+                return;
+            } catch (NumberFormatException e) {
+                toNominal();
+            }
+        }
+        if (size == codes.length) codes = Arrays.copyOf(codes, Math.max(INITIAL_CAPACITY, size * 2));
+        codes[size++] = encode(value);
+    }
+
+    /**
+     * Appends a value already parsed as a number, the raw text is needed
+     * instead once the column is nominal. No text is kept: should the column
+     * turn nominal, the value is encoded as {@link #format(double) format(value)}.
+     */
+    public void appendNumber(double value) {
+        if (!numeric) {
+            append(format(value));
+            return;
+        }
+        quantized = null;
+        sorted = null;
+        if (size == values.length) values = Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, size * 2));
+        values[size++] = value;
+    }
+
+    private void keepText(int row, String value) {
+        if (text == null) text = new String[values.length];
+        else if (text.length < values.length) text = Arrays.copyOf(text, values.length);
+        text[row] = value;
+    }
+
+    private String text(int row) {
+        return text != null && row < text.length && text[row] != null ? text[row] : format(values[row]);
+    }
+
+    /**
+     * Drops the source text kept for numeric rows once no more rows are
+     * appended; a column converted to nominal later encodes formatted numbers.
+     */
+    public void settle() {
+        text = null;
+    }
+
+    /**
+     * Appends all rows of another column, merging its dictionary into this one.
+     * If either column is nominal the result is.
+     */
+    public void appendAll(Column other) {
+        quantized = null;
+        sorted = null;
+        if (numeric && other.numeric) {
+            if (size + other.size > values.length) values = Arrays.copyOf(values, Math.max(size * 2, size + other.size));
+            for (int row = 0; other.text != null && row < other.size; row++) {
+                if (other.text[row] != null) keepText(size + row, other.text[row]);
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            return;
+        }
+        toNominal();
+        if (size + other.size > codes.length) codes = Arrays.copyOf(codes, Math.max(size * 2, size + other.size));
+        if (other.numeric) {
+            for (int row = 0; row < other.size; row++) {
+                codes[size++] = encode(other.text(row));
+            }
+            return;
+        }
+        int[] remap = new int[other.dictionary.size()];
+        for (int code = 0; code < remap.length; code++) {
+            remap[code] = encode(other.dictionary.get(code));
+        }
+        for (int row = 0; row < other.size; row++) {
+            codes[size++] = remap[other.codes[row]];
+        }
+    }
+
+    /**
+     * Dictionary encodes a numeric column, used for the target attribute
+     * and when a non numeric value shows up in a column that looked numeric.
+     */
+    public void toNominal() {
+        if (!numeric) return;
+        codes = new int[Math.max(values.length, INITIAL_CAPACITY)];
+        for (int row = 0; row < size; row++) {
+            codes[row] = encode(text(row));
+        }
+        values = null;
+        text = null;
+        numeric = false;
+    }
+
+    private int encode(String value) {
+        Integer code = index.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            index.put(value, code);
+        }
+        return code;
+    }
+
+    public double getDouble(int row) {
+        if (numeric) return values[row];
+        return Double.parseDouble(dictionary.get(codes[row]));
+    }
+
+    public int getCode(int row) {
+        return codes[row];
+    }
+
+    public String getString(int row) {
+        if (numeric) return format(values[row]);
+        return dictionary.get(codes[row]);
+    }
+
+    /**
+     * @return the code of a nominal value or -1 when the value was never seen
+     */
+    public int code(String value) {
+        return index.getOrDefault(value, -1);
+    }
+
+    public int cardinality() {
+        return dictionary.size();
+    }
+
+    public List<String> getDictionary() {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    /**
+     * Quantizes a numeric column into at most {@code maxBins} bins holding
+     * roughly the same number of rows. Columns with fewer distinct values
+     * than bins get one bin per value. The result is kept, so repeated
+     * builds over the same data quantize only once.
+     */
+    public synchronized Bins quantize(int maxBins) {
+        if (!numeric) throw new IllegalStateException(name + " is not numeric");
+        if (maxBins < 2 || maxBins > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBins must be between 2 and " + Short.MAX_VALUE);
+        }
+        if (quantized != null && quantized.maxBins == maxBins) return quantized;
+
+        double[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int distinct = size == 0 ? 0 : 1;
+        for (int i = 1; i < size; i++) {
+            if (sorted[i] != sorted[i - 1]) distinct++;
+        }
+        double perBin = (double) size / maxBins;
+        double[] lower = new double[Math.min(distinct, maxBins)];
+        double[] upper = new double[lower.length];
+        int bin = 0;
+        if (size > 0) lower[0] = sorted[0];
+        for (int i = 1; i < size; i++) {
+            if (sorted[i] != sorted[i - 1] && (distinct <= maxBins || i >= (bin + 1) * perBin)) {
+                upper[bin] = sorted[i - 1];
+                lower[++bin] = sorted[i];
+            }
+        }
+        if (size > 0) upper[bin] = sorted[size - 1];
+
+        short[] codes = new short[size];
+        for (int row = 0; row < size; row++) {
+            int lo = 0, hi = bin;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (upper[mid] < values[row]) lo = mid + 1;
+                else hi = mid;
+            }
+            codes[row] = (short) lo;
+        }
+        quantized = new Bins(maxBins, codes, Arrays.copyOf(lower, bin + 1), Arrays.copyOf(upper, bin + 1));
+        return quantized;
+    }
+
+    /**
+     * @return the rows of a numeric column ordered by value, computed once and
+     * shared by every tree built on the column; callers must not modify it
+     */
+    public synchronized int[] sortedRows() {
+        if (!numeric) throw new IllegalStateException(name + " is not numeric");
+        if (sorted != null) return sorted;
+        double[] keys = Arrays.copyOf(values, size);
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) rows[row] = row;
+        TreeMath.sort(keys, rows, 0, size);
+        sorted = rows;
+        return sorted;
+    }
+
+    /**
+     * The bin of every row of a quantized column and the smallest and
+     * largest value that fell into each bin.
+     */
+    @Getter
+    public static class Bins {
+        private final int maxBins;
+        private final short[] codes;
+        private final double[] lower;
+        private final double[] upper;
+
+        Bins(int maxBins, short[] codes, double[] lower, double[] upper) {
+            this.maxBins = maxBins;
+            this.codes = codes;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public int count() {
+            return lower.length;
+        }
+    }
+
+    public static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
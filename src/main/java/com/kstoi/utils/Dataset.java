@@ -9,26 +9,148 @@ import java.util.*;
 @Setter
 @Getter
 public class Dataset {
+    public static final String MISSING = "?";
+    public static final String MISSING_VALUE = "-1";
+
     private String relation;
     private List<Line> data = new ArrayList<>();
     private List<String> attributes;
+    private final Map<String, Column> columns;
 
     public Dataset(String relation) {
+        this(relation, new LinkedHashMap<>());
+    }
+
+    private Dataset(String relation, Map<String, Column> columns) {
         this.relation  = relation;
+        this.columns = columns;
     }
     public void load(List<String> attributes,String[] values){
-        try {
-            data.add(new Line(attributes,values));
-        } catch (Exception e) {
-            log.error(e.getMessage());
+        if (values.length < attributes.size()){
+            log.error("values = {} but attributes = {}", values.length, attributes.size());
+            return;
         }
+        for (int i = 0; i < attributes.size(); i++) {
+            var attribute = attributes.get(i);
+            if (isLoaded(attribute)) {
+                columns.computeIfAbsent(attribute, Column::new).append(values[i].equals(MISSING) ? MISSING_VALUE : values[i]);
+            }
+        }
+        data.add(new Line(this, data.size()));
+    }
+
+    /**
+     * Appends rows that were loaded into separate columns, one per loaded attribute.
+     * Columns the dataset does not have yet are taken over as they are.
+     */
+    public void load(List<Column> loaded, int rows) {
+        for (var column : loaded) {
+            var existing = columns.get(column.getName());
+            if (existing == null) columns.put(column.getName(), column);
+            else existing.appendAll(column);
+        }
+        for (int i = 0; i < rows; i++) {
+            data.add(new Line(this, data.size()));
+        }
+    }
+
+    /**
+     * The decision attributes give the match away and are never loaded.
+     */
+    public static boolean isLoaded(String attribute) {
+        return !attribute.equals("decision") && !attribute.equals("decision_o");
     }
+
+    /**
+     * Sets the attributes, the last one being the target, once all rows are
+     * loaded. The target column is dictionary encoded from the text of its
+     * values, so the labels are available as {@link #getLabels()}, and the
+     * columns are {@link Column#settle() settled}.
+     */
+    public void setAttributes(List<String> attributes) {
+        this.attributes = attributes;
+        var target = columns.get(getTarget());
+        if (target != null) target.toNominal();
+        for (var column : columns.values()) column.settle();
+    }
+
+    public String getTarget() {
+        return attributes.get(attributes.size() - 1);
+    }
+
+    public Column getColumn(String attribute) {
+        return columns.get(attribute);
+    }
+
+    public boolean isNumeric(String attribute) {
+        var column = columns.get(attribute);
+        return column != null && column.isNumeric();
+    }
+
+    /**
+     * @return the class code of every row, indexed by {@link Line#getRow()}; the
+     * target column's backing array, see {@link Column#getCodes()}, so it may be
+     * longer than the rows and must not be modified
+     */
+    public int[] getLabels() {
+        return columns.get(getTarget()).getCodes();
+    }
+
+    /**
+     * @return the row index of every line of {@link #getData()}, in order
+     */
+    public int[] getRows() {
+        int[] rows = new int[data.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = data.get(i).getRow();
+        }
+        return rows;
+    }
+
+    public List<String> getClasses() {
+        return columns.get(getTarget()).getDictionary();
+    }
+
+    /**
+     * Quantizes every numeric attribute into at most {@code maxBins} bins,
+     * see {@link Column#quantize(int)}. Trees built with the same bin count
+     * reuse the result.
+     */
+    public void quantize(int maxBins) {
+        for (var attribute : attributes) {
+            if (isNumeric(attribute)) columns.get(attribute).quantize(maxBins);
+        }
+    }
+
+    /**
+     * The lines at {@code positions} of {@link #getData()}, as a dataset sharing
+     * this one's columns. Positions may repeat, as in a bootstrap sample; neither
+     * values nor lines are copied.
+     */
+    public Dataset subset(int[] positions) {
+        var subset = new Dataset(relation, columns);
+        var lines = data;
+        subset.data = new AbstractList<>() {
+            @Override
+            public Line get(int index) {
+                return lines.get(positions[index]);
+            }
+
+            @Override
+            public int size() {
+                return positions.length;
+            }
+        };
+        subset.attributes = attributes;
+        return subset;
+    }
+
     public Dataset[] split(int divided){
         var datasets = new Dataset[divided];
         int size = this.getData().size();
 
         for (int i=0; i<divided;i++){
-            datasets[i]=new Dataset("{"+i+"} "+this.relation+" 1/"+divided);
+            datasets[i]=new Dataset("{"+i+"} "+this.relation+" 1/"+divided, columns);
             int newSize = size/divided;
             try {
                 datasets[i].getData().addAll(data.subList(i*newSize,i*newSize+newSize));
@@ -43,43 +165,46 @@ public class Dataset {
         return datasets;
     }
 
-    @Slf4j
-    @Setter
+    /**
+     * A row of the dataset. It holds no values itself, only the row index
+     * into the columns of the dataset it was loaded into.
+     */
     @Getter
     public static class Line{
-        private Map<String,String> line = new HashMap<>();
+        private final Dataset dataset;
+        private final int row;
+
+        public Line(Dataset dataset, int row) {
+            this.dataset = dataset;
+            this.row = row;
+        }
 
         @Override
         public String toString() {
             return "Line{" +
-                    "line=" + line +
+                    "line=" + getLine() +
                     '}';
         }
 
-        public Line(List<String> attributes, String[] values) throws Exception {
-            var sb = new StringBuilder();
-            if (values.length < attributes.size()){
-                throw new Exception("values = "+values.length+" but attributes = "+attributes.size());
-            }
-            for (int i = 0; i < attributes.size(); i++) {
-                var attribute = attributes.get(i) ;
-                var value =  values[i];
-                if(!attribute.equals("decision") && !attribute.equals("decision_o")) {
-
-                    line.put(attribute, value.equals("?")?"-1":value);
-                    log.info("{} -->  {}", attribute, value);
-                    sb.append(attribute);
-                    sb.append(" = ");
-                    sb.append(value);
-                    if (i != attributes.size() - 1) {
-                        sb.append(" , ");
-                    }
-                }
+        public Map<String, String> getLine() {
+            var line = new LinkedHashMap<String, String>();
+            for (var column : dataset.columns.values()) {
+                line.put(column.getName(), column.getString(row));
             }
-            log.info(sb.toString());
+            return line;
         }
+
         public String get(String attribute) {
-            return this.line.get(attribute);
+            var column = dataset.columns.get(attribute);
+            return column == null ? null : column.getString(row);
+        }
+
+        public double getDouble(String attribute) {
+            return dataset.columns.get(attribute).getDouble(row);
+        }
+
+        public int getCode(String attribute) {
+            return dataset.columns.get(attribute).getCode(row);
         }
     }
 
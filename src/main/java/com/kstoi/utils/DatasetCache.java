@@ -0,0 +1,173 @@
+package com.kstoi.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary copy of a loaded {@link Dataset}, so later runs skip parsing the source file.
+ *
+ * <p>Layout, little endian, strings as an int byte length and UTF-8 bytes:
+ * <pre>
+ * int magic, int version, long source length, long source last modified
+ * string relation, int attribute count, string attribute...
+ * int rows, int column count, then per column:
+ *   string name, byte type (0 numeric, 1 nominal)
+ *   nominal only: int dictionary size, string value...
+ *   rows doubles (numeric) or rows int codes (nominal)
+ * </pre>
+ * A cache written for a source file of another length or modification time is stale,
+ * and so is one that is cut short or does not hold together.
+ * Files with no source, as {@link DatasetGenerator#writeBinary(File)} writes, carry 0 for both.
+ */
+@Slf4j
+public class DatasetCache {
+    private static final int MAGIC = 0x4b544453;
+    private static final int VERSION = 1;
+    private static final byte NUMERIC = 0;
+    private static final byte NOMINAL = 1;
+
+    private final File file;
+
+    public DatasetCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param source the file the cache was written for, null to take the cache whatever it was written for
+     * @return the cached dataset or null when there is no usable cache for this version of {@code source}
+     */
+    public Dataset load(File source) throws IOException {
+        if (!file.exists()) return null;
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            return read(buffer, source);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            log.warn("{} is damaged, treating it as stale: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    private Dataset read(ByteBuffer buffer, File source) {
+        boolean current = buffer.getInt() == MAGIC && buffer.getInt() == VERSION;
+        long length = buffer.getLong();
+        long lastModified = buffer.getLong();
+        if (!current || (source != null && (length != source.length() || lastModified != source.lastModified()))) {
+            log.info("{} is stale", file);
+            return null;
+        }
+        var dataset = new Dataset(BinaryWriter.getString(buffer));
+        var attributes = new ArrayList<String>();
+        int attributeCount = buffer.getInt();
+        for (int i = 0; i < attributeCount; i++) attributes.add(BinaryWriter.getString(buffer));
+
+        int rows = buffer.getInt();
+        int columnCount = buffer.getInt();
+        if (rows < 0 || columnCount < 0) throw new IllegalArgumentException(rows + " rows, " + columnCount + " columns");
+        var columns = new ArrayList<Column>();
+        for (int c = 0; c < columnCount; c++) {
+            var name = BinaryWriter.getString(buffer);
+            byte type = buffer.get();
+            if (type != NUMERIC && type != NOMINAL) throw new IllegalArgumentException("column type " + type);
+            if (type == NUMERIC) {
+                require(buffer, (long) rows * Double.BYTES);
+                var values = new double[rows];
+                buffer.asDoubleBuffer().get(values);
+                buffer.position(buffer.position() + rows * Double.BYTES);
+                columns.add(Column.numeric(name, values, rows));
+            } else {
+                var dictionary = new ArrayList<String>();
+                int size = buffer.getInt();
+                require(buffer, (long) size * Integer.BYTES);
+                for (int i = 0; i < size; i++) dictionary.add(BinaryWriter.getString(buffer));
+                require(buffer, (long) rows * Integer.BYTES);
+                var codes = new int[rows];
+                buffer.asIntBuffer().get(codes);
+                buffer.position(buffer.position() + rows * Integer.BYTES);
+                for (int code : codes) {
+                    if (code < 0 || code >= size) throw new IllegalArgumentException(name + " code " + code);
+                }
+                columns.add(Column.nominal(name, codes, rows, dictionary));
+            }
+        }
+        dataset.load(columns, rows);
+        dataset.setAttributes(attributes);
+        log.info("loaded {} rows from {}", rows, file);
+        return dataset;
+    }
+
+    /**
+     * @throws BufferUnderflowException when fewer than {@code bytes} are left
+     */
+    private static void require(ByteBuffer buffer, long bytes) {
+        if (bytes < 0 || bytes > buffer.remaining()) throw new BufferUnderflowException();
+    }
+
+    /**
+     * Writes the lines of {@code dataset} as the cache of {@code source}.
+     * The file is written aside and moved in place, so readers never see half of it;
+     * the file aside is deleted when writing fails.
+     */
+    public void write(Dataset dataset, File source) throws IOException {
+        var temp = new File(file.getPath() + ".tmp");
+        int[] rows = dataset.getRows();
+        try {
+            try (var out = new BinaryWriter(temp.toPath())) {
+                writeHeader(out, source.length(), source.lastModified(), dataset.getRelation(), dataset.getAttributes(),
+                        rows.length, dataset.getColumns().size());
+                for (var column : dataset.getColumns().values()) {
+                    if (column.isNumeric()) {
+                        writeColumnHeader(out, column.getName(), null);
+                        for (int row : rows) out.putDouble(column.getValues()[row]);
+                    } else {
+                        writeColumnHeader(out, column.getName(), column.getDictionary());
+                        for (int row : rows) out.putInt(column.getCodes()[row]);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temp.exists() && !temp.delete()) log.warn("cannot delete {}", temp);
+            throw e;
+        }
+        log.info("cached {} rows in {}", rows.length, file);
+    }
+
+    /**
+     * Writes everything up to the first column.
+     */
+    static void writeHeader(BinaryWriter out, long sourceLength, long sourceLastModified, String relation,
+                            List<String> attributes, int rows, int columns) throws IOException {
+        out.putInt(MAGIC).putInt(VERSION).putLong(sourceLength).putLong(sourceLastModified);
+        out.putString(relation);
+        out.putInt(attributes.size());
+        for (var attribute : attributes) out.putString(attribute);
+        out.putInt(rows);
+        out.putInt(columns);
+    }
+
+    /**
+     * Writes what comes before a column's values, {@code rows} doubles for a
+     * numeric column (null dictionary) or {@code rows} int codes for a nominal one.
+     */
+    static void writeColumnHeader(BinaryWriter out, String name, List<String> dictionary) throws IOException {
+        out.putString(name);
+        if (dictionary == null) {
+            out.put(NUMERIC);
+            return;
+        }
+        out.put(NOMINAL);
+        out.putInt(dictionary.size());
+        for (var value : dictionary) out.putString(value);
+    }
+}
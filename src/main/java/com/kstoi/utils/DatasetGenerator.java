@@ -0,0 +1,273 @@
+package com.kstoi.utils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates datasets of any size for scale testing: {@code numericAttributes}
+ * numeric attributes {@code n0, n1, ...} with values in [0, 100) at two
+ * decimals, {@code nominalAttributes} nominal ones {@code c0, c1, ...} over
+ * {@code cardinality} values {@code v0, v1, ...}, and a nominal target
+ * {@code class} with values {@code 0, 1, ...}.
+ *
+ * <p>The target follows a hidden tree of depth {@code conceptDepth} over the
+ * attributes, so trees can learn it, with a {@code noise} fraction of the rows
+ * given a random class instead. Attribute values go missing at
+ * {@code missingRate}; the concept still sees the value that went missing.
+ *
+ * <p>Every value is a hash of {@code (seed, row, attribute)}, not drawn from a
+ * random sequence, so a row is the same whatever is generated around it, and
+ * files are streamed in whichever order their layout needs without holding
+ * the rows: ARFF row by row, the binary format of {@link DatasetCache} column
+ * by column.
+ */
+@Slf4j
+@Getter
+@Setter
+public class DatasetGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final String TARGET = "class";
+
+    private final long rows;
+    private int numericAttributes = 10;
+    private int nominalAttributes = 5;
+    private int cardinality = 8;
+    private double missingRate;
+    private int classes = 2;
+    private int conceptDepth = 4;
+    private double noise = 0.05;
+    private long seed;
+    private String relation = "synthetic";
+
+    public DatasetGenerator(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return the attribute names, the target last
+     */
+    public List<String> attributes() {
+        var attributes = new ArrayList<String>();
+        for (int a = 0; a < numericAttributes; a++) attributes.add("n" + a);
+        for (int a = 0; a < nominalAttributes; a++) attributes.add("c" + a);
+        attributes.add(TARGET);
+        return attributes;
+    }
+
+    /**
+     * Generates the rows straight into the columns of a dataset, as if it had
+     * been read from {@link #writeArff(File)}'s file but with the nominal
+     * values coded in dictionary order.
+     */
+    public Dataset dataset() {
+        int size = rowCount();
+        var concept = new Concept();
+        var names = attributes();
+        var columns = new ArrayList<Column>();
+        for (int a = 0; a < width(); a++) {
+            if (a < numericAttributes) {
+                var values = new double[size];
+                for (int row = 0; row < size; row++) values[row] = missing(row, a) ? -1 : number(row, a);
+                columns.add(Column.numeric(names.get(a), values, size));
+            } else {
+                var codes = new int[size];
+                for (int row = 0; row < size; row++) codes[row] = missing(row, a) ? cardinality : code(row, a);
+                columns.add(Column.nominal(names.get(a), codes, size, dictionary()));
+            }
+        }
+        var labels = new int[size];
+        for (int row = 0; row < size; row++) labels[row] = concept.label(row);
+        columns.add(Column.nominal(TARGET, labels, size, classNames()));
+
+        var dataset = new Dataset(relation);
+        dataset.load(columns, size);
+        dataset.setAttributes(names);
+        log.info("generated {} rows", size);
+        return dataset;
+    }
+
+    /**
+     * Streams the rows to an ARFF file, one line at a time.
+     */
+    public void writeArff(File file) throws IOException {
+        var concept = new Concept();
+        var names = attributes();
+        try (var out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("@relation " + relation + "\n\n");
+            for (int a = 0; a < width(); a++) {
+                out.write("@attribute " + names.get(a)
+                        + (a < numericAttributes ? " numeric" : " {" + String.join(",", values()) + "}") + "\n");
+            }
+            out.write("@attribute " + TARGET + " {" + String.join(",", classNames()) + "}\n\n@data\n");
+
+            var line = new StringBuilder();
+            for (long row = 0; row < rows; row++) {
+                line.setLength(0);
+                for (int a = 0; a < width(); a++) {
+                    if (missing(row, a)) line.append(Dataset.MISSING);
+                    else if (a < numericAttributes) appendHundredths(line, hundredths(row, a));
+                    else line.append('v').append(code(row, a));
+                    line.append(',');
+                }
+                line.append(concept.label(row)).append('\n');
+                out.append(line);
+            }
+        }
+        log.info("wrote {} rows to {}", rows, file);
+    }
+
+    /**
+     * Streams the rows to a file in the layout of {@link DatasetCache}, one
+     * column at a time, with no source. {@code new DatasetCache(file).load(null)}
+     * reads it back.
+     */
+    public void writeBinary(File file) throws IOException {
+        int size = rowCount();
+        var concept = new Concept();
+        var names = attributes();
+        var temp = new File(file.getPath() + ".tmp");
+        try (var out = new BinaryWriter(temp.toPath())) {
+            DatasetCache.writeHeader(out, 0, 0, relation, names, size, names.size());
+            for (int a = 0; a < width(); a++) {
+                if (a < numericAttributes) {
+                    DatasetCache.writeColumnHeader(out, names.get(a), null);
+                    for (int row = 0; row < size; row++) out.putDouble(missing(row, a) ? -1 : number(row, a));
+                } else {
+                    DatasetCache.writeColumnHeader(out, names.get(a), dictionary());
+                    for (int row = 0; row < size; row++) out.putInt(missing(row, a) ? cardinality : code(row, a));
+                }
+            }
+            DatasetCache.writeColumnHeader(out, TARGET, classNames());
+            for (int row = 0; row < size; row++) out.putInt(concept.label(row));
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("wrote {} rows to {}", size, file);
+    }
+
+    private int rowCount() {
+        if (rows > Integer.MAX_VALUE) {
+            throw new IllegalStateException(rows + " rows do not fit a dataset, stream them with writeArff");
+        }
+        return (int) rows;
+    }
+
+    private int width() {
+        return numericAttributes + nominalAttributes;
+    }
+
+    private List<String> values() {
+        var values = new ArrayList<String>();
+        for (int v = 0; v < cardinality; v++) values.add("v" + v);
+        return values;
+    }
+
+    /**
+     * The nominal values followed by the value missing ones are loaded as.
+     */
+    private List<String> dictionary() {
+        var dictionary = values();
+        dictionary.add(Dataset.MISSING_VALUE);
+        return dictionary;
+    }
+
+    private List<String> classNames() {
+        var names = new ArrayList<String>();
+        for (int c = 0; c < classes; c++) names.add(Integer.toString(c));
+        return names;
+    }
+
+    private int hundredths(long row, int attribute) {
+        return (int) (unit(hash(row, attribute)) * 10000);
+    }
+
+    private double number(long row, int attribute) {
+        return hundredths(row, attribute) / 100d;
+    }
+
+    private int code(long row, int attribute) {
+        return (int) ((hash(row, attribute) >>> 1) % cardinality);
+    }
+
+    private boolean missing(long row, int attribute) {
+        return missingRate > 0 && unit(hash(row, width() + attribute)) < missingRate;
+    }
+
+    private static void appendHundredths(StringBuilder sb, int hundredths) {
+        sb.append(hundredths / 100).append('.');
+        int fraction = hundredths % 100;
+        if (fraction < 10) sb.append('0');
+        sb.append(fraction);
+    }
+
+    private long hash(long row, int column) {
+        return mix(seed + mix(row * GOLDEN_GAMMA + column));
+    }
+
+    private static double unit(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The finalizer of SplitMix64.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The hidden tree, a complete binary tree numbered as a heap from 1. A
+     * numeric node sends values up to its threshold left, a nominal node sends
+     * each value left or right by the parity of a hash. Leaves take a class
+     * from a hash as well; classes alternating between siblings would make
+     * the concept a parity no greedy split search finds.
+     */
+    private class Concept {
+        private final int[] feature;
+        private final double[] threshold;
+        private final long[] salt;
+        private final int[] leafClass;
+
+        Concept() {
+            int nodes = 1 << conceptDepth;
+            feature = new int[nodes];
+            threshold = new double[nodes];
+            salt = new long[nodes];
+            for (int k = 1; k < nodes; k++) {
+                salt[k] = mix(seed ^ mix(-k));
+                feature[k] = width() == 0 ? -1 : (int) ((salt[k] >>> 1) % width());
+                threshold[k] = (2000 + (int) (unit(mix(salt[k])) * 6000)) / 100d;
+            }
+            leafClass = new int[nodes];
+            for (int leaf = 0; leaf < nodes; leaf++) leafClass[leaf] = (int) ((mix(seed + mix(leaf)) >>> 1) % classes);
+        }
+
+        int label(long row) {
+            int width = width();
+            if (noise > 0 && unit(hash(row, 2 * width)) < noise) {
+                return (int) ((hash(row, 2 * width + 1) >>> 1) % classes);
+            }
+            int k = 1;
+            for (int depth = 0; depth < conceptDepth; depth++) {
+                int f = feature[k];
+                boolean left = f < 0
+                        || (f < numericAttributes ? number(row, f) <= threshold[k] : (mix(salt[k] + code(row, f)) & 1) == 0);
+                k = 2 * k + (left ? 0 : 1);
+            }
+            return leafClass[k - (1 << conceptDepth)];
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.kstoi.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads ARFF and CSV files by memory mapping them. The data section is cut
+ * into chunks at line boundaries, the chunks are parsed concurrently into
+ * columns of their own and the columns are appended to the dataset in file
+ * order, so the result is the same as {@link ArffReader#loadData()}.
+ * Numbers are appended without their text. Before the merge, the target and
+ * every column that turned nominal in any chunk are read again as text in
+ * the chunks holding numbers that {@link Column#format(double)} would not give back.
+ *
+ * <p>A file ending in {@code .csv} is read as CSV with the attribute names on
+ * its first line, anything else as ARFF. In both the last attribute is the target.
+ */
+@Slf4j
+public class MappedReader {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = Integer.MAX_VALUE - (1 << 20);
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1d;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final File file;
+    private final ForkJoinPool pool;
+
+    public MappedReader(File file) {
+        this(file, ForkJoinPool.commonPool());
+    }
+
+    public MappedReader(File file, ForkJoinPool pool) {
+        this.file = file;
+        this.pool = pool;
+    }
+
+    public Dataset loadData() throws IOException {
+        log.info("mapping {} ...", file);
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var header = new ArffReader.Header();
+            long dataStart = file.getName().toLowerCase().endsWith(".csv")
+                    ? readCsvHeader(channel, header)
+                    : readArffHeader(channel, header);
+            var chunks = chunks(channel, dataStart);
+            log.info("parsing {} bytes in {} chunks", channel.size() - dataStart, chunks.size() - 1);
+
+            List<Future<Chunk>> parsed = new ArrayList<>();
+            for (int i = 0; i + 1 < chunks.size(); i++) {
+                long from = chunks.get(i), to = chunks.get(i + 1);
+                parsed.add(pool.submit((Callable<Chunk>) () ->
+                        new Chunk(header, file).parse(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from))));
+            }
+
+            List<Chunk> done = new ArrayList<>();
+            for (var future : parsed) done.add(future.get());
+            List<Future<Chunk>> reparsed = new ArrayList<>();
+            for (int a = 0; a < header.attributes.size(); a++) {
+                int attribute = a;
+                // the target is always encoded
+                boolean target = a == header.attributes.size() - 1;
+                if (!target && done.stream().noneMatch(chunk -> chunk.isNominal(attribute))) continue;
+                for (var chunk : done) {
+                    if (chunk.unformatted[attribute]) reparsed.add(pool.submit(() -> chunk.reparse(attribute)));
+                }
+            }
+            for (var future : reparsed) future.get();
+
+            var dataset = new Dataset(header.relation);
+            for (var chunk : done) dataset.load(chunk.columns, chunk.rows);
+            log.info("read {} rows", dataset.getData().size());
+            return ArffReader.finish(dataset, header.attributes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading " + file);
+        } catch (ExecutionException e) {
+            // a ForkJoinPool hands back the checked exception of a Callable wrapped, maybe more than once
+            for (var cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException io) throw io;
+            }
+            throw new IOException("failed to load " + file, e.getCause());
+        }
+    }
+
+    private static long readArffHeader(FileChannel channel, ArffReader.Header header) throws IOException {
+        long position = 0;
+        while (position < channel.size()) {
+            var line = readLine(channel, position);
+            position += line.length;
+            if (ArffReader.parseHeaderLine(new String(line, StandardCharsets.UTF_8), header)) return position;
+        }
+        throw new EOFException("no @data section");
+    }
+
+    private static long readCsvHeader(FileChannel channel, ArffReader.Header header) throws IOException {
+        var line = readLine(channel, 0);
+        var names = ArffReader.parseRow(new String(line, StandardCharsets.UTF_8), new String[0]);
+        if (names == null) throw new EOFException("no header line");
+        for (var name : names) {
+            header.attributes.add(name);
+            header.sparseDefaults.add("0");
+        }
+        return line.length;
+    }
+
+    /**
+     * @return the bytes from {@code position} up to and including the next newline
+     */
+    private static byte[] readLine(FileChannel channel, long position) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var buffer = ByteBuffer.allocate(8192);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) return out.toByteArray();
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    out.write(buffer.array(), 0, i + 1);
+                    return out.toByteArray();
+                }
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * @return chunk boundaries from {@code dataStart} to the end of the file, each right after a newline
+     */
+    private List<Long> chunks(FileChannel channel, long dataStart) throws IOException {
+        long size = channel.size();
+        long target = (size - dataStart) / Math.max(1, pool.getParallelism() * 4L);
+        target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, target));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(dataStart);
+        long position = dataStart;
+        while (position < size) {
+            long next = position + target;
+            if (next >= size) {
+                next = size;
+            } else {
+                next += readLine(channel, next).length;
+            }
+            boundaries.add(next);
+            position = next;
+        }
+        return boundaries;
+    }
+
+    /**
+     * Rows of one chunk, parsed into columns of its own.
+     */
+    private static class Chunk {
+        private final File file;
+        private final List<String> attributes;
+        private final String[] sparseDefaults;
+        private final Column[] byAttribute;
+        private final List<Column> columns = new ArrayList<>();
+        private final int[] fieldStart;
+        private final int[] fieldEnd;
+        /** per attribute, whether a number was appended whose text format() does not reproduce */
+        private final boolean[] unformatted;
+        private MappedByteBuffer buffer;
+        /** the attribute read again as text, -1 when reading all */
+        private int only = -1;
+        private int rows;
+        private byte[] scratch = new byte[256];
+
+        Chunk(ArffReader.Header header, File file) {
+            this.file = file;
+            attributes = header.attributes;
+            sparseDefaults = header.getSparseDefaults();
+            byAttribute = new Column[attributes.size()];
+            for (int i = 0; i < byAttribute.length; i++) {
+                if (Dataset.isLoaded(attributes.get(i))) {
+                    byAttribute[i] = new Column(attributes.get(i));
+                    columns.add(byAttribute[i]);
+                }
+            }
+            fieldStart = new int[attributes.size()];
+            fieldEnd = new int[attributes.size()];
+            unformatted = new boolean[attributes.size()];
+        }
+
+        boolean isNominal(int attribute) {
+            return byAttribute[attribute] != null && !byAttribute[attribute].isNumeric();
+        }
+
+        /**
+         * Reads the column of one attribute again, appending every value as text.
+         */
+        synchronized Chunk reparse(int attribute) throws IOException {
+            var column = new Column(attributes.get(attribute));
+            columns.set(columns.indexOf(byAttribute[attribute]), column);
+            byAttribute[attribute] = column;
+            only = attribute;
+            rows = 0;
+            return parse(buffer);
+        }
+
+        Chunk parse(MappedByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            int limit = buffer.limit();
+            int position = 0;
+            while (position < limit) {
+                int end = position;
+                while (end < limit && buffer.get(end) != '\n') end++;
+                parseLine(buffer, position, end);
+                position = end + 1;
+            }
+            return this;
+        }
+
+        private void parseLine(ByteBuffer buffer, int from, int to) throws IOException {
+            while (from < to && isSpace(buffer.get(from))) from++;
+            while (to > from && isSpace(buffer.get(to - 1))) to--;
+            if (from == to || buffer.get(from) == '%') return;
+            if (buffer.get(from) == '{') {
+                var line = string(buffer, from, to);
+                String[] values;
+                try {
+                    values = ArffReader.parseRow(line, sparseDefaults);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ": " + e.getMessage() + " in line " + line, e);
+                }
+                for (int i = 0; i < byAttribute.length; i++) {
+                    if (byAttribute[i] != null && (only < 0 || only == i)) byAttribute[i].append(values[i].equals(Dataset.MISSING) ? Dataset.MISSING_VALUE : values[i]);
+                }
+                rows++;
+                return;
+            }
+
+            int fields = 0;
+            int start = from;
+            int i = from;
+            while (i <= to && fields < fieldStart.length) {
+                if (i == to || buffer.get(i) == ',') {
+                    fieldStart[fields] = start;
+                    fieldEnd[fields++] = i;
+                    start = i + 1;
+                } else if (buffer.get(i) == '\'' || buffer.get(i) == '"') {
+                    byte quote = buffer.get(i);
+                    for (i++; i < to && buffer.get(i) != quote; i++) {
+                        if (buffer.get(i) == '\\') i++;
+                    }
+                }
+                i++;
+            }
+            if (fields < fieldStart.length) {
+                if (only < 0) log.error("values = {} but attributes = {}", fields, fieldStart.length);
+                return;
+            }
+            for (int f = 0; f < fields; f++) {
+                if (byAttribute[f] != null && (only < 0 || only == f)) append(f, buffer, fieldStart[f], fieldEnd[f]);
+            }
+            rows++;
+        }
+
+        private void append(int attribute, ByteBuffer buffer, int from, int to) {
+            var column = byAttribute[attribute];
+            while (from < to && isSpace(buffer.get(from))) from++;
+            while (to > from && isSpace(buffer.get(to - 1))) to--;
+            if (to - from == 1 && buffer.get(from) == '?') {
+                column.append(Dataset.MISSING_VALUE);
+                return;
+            }
+            if (column.isNumeric() && only < 0) {
+                double value = parseNumber(buffer, from, to);
+                if (!Double.isNaN(value)) {
+                    if (!unformatted[attribute] && !isFormatted(buffer, from, to)) unformatted[attribute] = true;
+                    column.appendNumber(value);
+                    return;
+                }
+            }
+            column.append(ArffReader.unquote(string(buffer, from, to)));
+        }
+
+        private String string(ByteBuffer buffer, int from, int to) {
+            if (scratch.length < to - from) scratch = new byte[Math.max(scratch.length * 2, to - from)];
+            buffer.get(from, scratch, 0, to - from);
+            return new String(scratch, 0, to - from, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Tells whether a number accepted by {@link #parseNumber} is written the
+     * way {@link Column#format(double)} writes its value: an integer of at
+     * most 15 digits, or a decimal between 0.001 and 10^7 with at most 15
+     * significant digits, without a sign, leading or trailing zeros or exponent
+     * that format would drop. May answer false for text that format gives back.
+     */
+    static boolean isFormatted(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = i < to && buffer.get(i) == '-';
+        if (negative) i++;
+        int start = i;
+        while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9') i++;
+        int integerDigits = i - start;
+        if (integerDigits == 0 || integerDigits > 1 && buffer.get(start) == '0') return false;
+        boolean zero = integerDigits == 1 && buffer.get(start) == '0';
+        if (i == to) return integerDigits <= 15 && !(negative && zero);
+        if (buffer.get(i) != '.' || integerDigits > 7) return false;
+        int fractionStart = ++i;
+        while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9') i++;
+        int fractionDigits = i - fractionStart;
+        if (i != to || fractionDigits == 0 || buffer.get(to - 1) == '0') return false;
+        if (!zero) return integerDigits + fractionDigits <= 15;
+        int leadingZeros = 0;
+        while (buffer.get(fractionStart + leadingZeros) == '0') leadingZeros++;
+        return leadingZeros < 3 && fractionDigits - leadingZeros <= 15;
+    }
+
+    /**
+     * Parses plain decimals with at most 18 significant digits whose value is
+     * exact in a single multiplication or division by a power of ten, which
+     * rounds the same as {@link Double#parseDouble}.
+     *
+     * @return the value or NaN when the text needs {@link Double#parseDouble}
+     */
+    static double parseNumber(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) negative = buffer.get(i++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 18) return Double.NaN;
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) scale--;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        if (i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) negativeExponent = buffer.get(i++) == '-';
+            int exponent = 0;
+            int exponentDigits = 0;
+            for (; i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+                if (++exponentDigits > 4) return Double.NaN;
+                exponent = exponent * 10 + (buffer.get(i) - '0');
+            }
+            if (exponentDigits == 0) return Double.NaN;
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to || mantissa > (1L << 53) || scale < -22 || scale > 22) return Double.NaN;
+        double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+}
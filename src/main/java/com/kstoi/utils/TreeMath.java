@@ -1,11 +1,51 @@
 package com.kstoi.utils;
 
 public class TreeMath {
+    private static final int INSERTION_SORT_THRESHOLD = 24;
+    private static final double LN2 = Math.log(2d);
+    private static final double[] N_LOG2_N = new double[1 << 16];
+
+    static {
+        for (int n = 1; n < N_LOG2_N.length; n++) N_LOG2_N[n] = n * Math.log(n) / LN2;
+    }
+
     private TreeMath(){}
     public static Double entropy(double p){
         if (p <= 0d) return 0d;
         return -p * Math.log(p) / Math.log(2d);
     }
+
+    /**
+     * Entropy of a node given the number of rows of every class.
+     */
+    public static double entropy(int[] counts, int total) {
+        if (total == 0) return 0d;
+        double entropy = 0d;
+        for (int count : counts) {
+            if (count > 0) entropy += entropy((double) count / total);
+        }
+        return entropy;
+    }
+
+    /**
+     * @return {@code n log2 n}, 0 for 0, from a table for counts below 65536
+     */
+    public static double nLog2n(int n) {
+        return n < N_LOG2_N.length ? N_LOG2_N[n] : n * Math.log(n) / LN2;
+    }
+
+    /**
+     * Entropy of a node given the (estimated) weight of every class.
+     */
+    public static double entropy(double[] counts, double total) {
+        if (total <= 0d) return 0d;
+        double entropy = 0d;
+        for (double count : counts) {
+            if (count > 0d) entropy += entropy(count / total);
+        }
+        return entropy;
+    }
+
     public static boolean isNumeric(String number){
         try {
             Double.parseDouble(number);
@@ -14,4 +54,52 @@ public class TreeMath {
             return false;
         }
     }
+
+    /**
+     * Sorts {@code keys} ascending and applies the same permutation to {@code values}.
+     */
+    public static void sort(double[] keys, int[] values, int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            if (keys[mid] < keys[from]) swap(keys, values, mid, from);
+            if (keys[to - 1] < keys[from]) swap(keys, values, to - 1, from);
+            if (keys[to - 1] < keys[mid]) swap(keys, values, to - 1, mid);
+            double pivot = keys[mid];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) swap(keys, values, i++, j--);
+            }
+            // recurse into the smaller half to keep the stack shallow
+            if (j - from < to - i) {
+                sort(keys, values, from, j + 1);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            double key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, int[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
 }